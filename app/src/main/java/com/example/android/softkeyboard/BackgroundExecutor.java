@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.softkeyboard;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A single low priority worker thread shared by everything in the input
+ * method that must stay off the main thread, plus a way to hand results back.
+ * Work items run one at a time, in submission order.
+ */
+final class BackgroundExecutor {
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable r) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    }, "SoftKeyboard-background");
+                }
+            });
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private BackgroundExecutor() {
+    }
+
+    static void execute(Runnable task) {
+        sExecutor.execute(task);
+    }
+
+    static void postToMain(Runnable task) {
+        sMainHandler.post(task);
+    }
+}
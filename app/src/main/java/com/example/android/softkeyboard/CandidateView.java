@@ -34,7 +34,7 @@ public class CandidateView extends View {
     private static final int OUT_OF_BOUNDS = -1;
 
     private SoftKeyboard mService;
-    public List<String> mSuggestions;
+    public List<String> mSuggestions = EMPTY_LIST;
     private int mSelectedIndex;
     private int mTouchX = OUT_OF_BOUNDS;
     private Drawable mSelectionHighlight;
@@ -61,6 +61,9 @@ public class CandidateView extends View {
     private int mTargetScrollX;
     
     private int mTotalWidth;
+    /** The height asked for by the last measure pass. */
+    private int mMeasuredForHeight;
+    private final Rect mClipBounds = new Rect();
     
     private GestureDetector mGestureDetector;
 
@@ -136,30 +139,35 @@ public class CandidateView extends View {
 
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        ImeStats.increment(ImeStats.CANDIDATES_LAYOUT);
         int measuredWidth = resolveSize(50, widthMeasureSpec);
+        mMeasuredForHeight = getDesiredHeight();
         
+        // Maximum possible width and desired height
+        setMeasuredDimension(measuredWidth,
+                resolveSize(mMeasuredForHeight, heightMeasureSpec));
+    }
+
+    private int getDesiredHeight() {
         // Get the desired height of the icon menu view (last row of items does
         // not have a divider below)
         Rect padding = new Rect();
         mSelectionHighlight.getPadding(padding);
-        final int desiredHeight = ((int)mPaint.getTextSize()) + mVerticalPadding
+        return ((int)mPaint.getTextSize()) + mVerticalPadding
                 + padding.top + padding.bottom;
-        
-        // Maximum possible width and desired height
-        setMeasuredDimension(measuredWidth,
-                resolveSize(desiredHeight, heightMeasureSpec));
     }
 
     /**
      * If the canvas is null, then only touch calculations are performed to pick the target
-     * candidate.
+     * candidate.  Words are laid out by {@link #setSuggestions}; only those
+     * within the clip are drawn.
      */
     @Override
     protected void onDraw(Canvas canvas) {
         if (canvas != null) {
+            ImeStats.increment(ImeStats.CANDIDATES_DRAW);
             super.onDraw(canvas);
         }
-        mTotalWidth = 0;
         if (mSuggestions == null) return;
         
         if (mBgPadding == null) {
@@ -168,8 +176,7 @@ public class CandidateView extends View {
                 getBackground().getPadding(mBgPadding);
             }
         }
-        int x = 0;
-        final int count = mSuggestions.size(); 
+        final int count = Math.min(mSuggestions.size(), MAX_SUGGESTIONS);
         final int height = getHeight();
         final Rect bgPadding = mBgPadding;
         final Paint paint = mPaint;
@@ -178,14 +185,18 @@ public class CandidateView extends View {
         final boolean scrolled = mScrolled;
         final boolean typedWordValid = mTypedWordValid;
         final int y = (int) (((height - mPaint.getTextSize()) / 2) - mPaint.ascent());
+        final Rect clip = mClipBounds;
+        if (canvas != null && !canvas.getClipBounds(clip)) {
+            return;
+        }
 
         for (int i = 0; i < count; i++) {
             String suggestion = mSuggestions.get(i);
-            float textWidth = paint.measureText(suggestion);
-            final int wordWidth = (int) textWidth + X_GAP * 2;
-
-            mWordX[i] = x;
-            mWordWidth[i] = wordWidth;
+            final int x = mWordX[i];
+            final int wordWidth = mWordWidth[i];
+            if (canvas != null && (x > clip.right || x + wordWidth + 1 < clip.left)) {
+                continue;
+            }
             paint.setColor(mColorNormal);
             if (touchX + scrollX >= x && touchX + scrollX < x + wordWidth && !scrolled) {
                 if (canvas != null) {
@@ -210,9 +221,7 @@ public class CandidateView extends View {
                         x + wordWidth + 0.5f, height + 1, paint);
                 paint.setFakeBoldText(false);
             }
-            x += wordWidth;
         }
-        mTotalWidth = x;
         if (mTargetScrollX != getScrollX()) {
             scrollToTarget();
         }
@@ -237,26 +246,67 @@ public class CandidateView extends View {
         invalidate();
     }
     
+    /**
+     * Show <var>suggestions</var>.  The new list is compared with the one
+     * shown: only words that changed are measured again, only the part of
+     * the strip from the first change on is redrawn, and the strip is only
+     * laid out again if its height would change.
+     */
     public void setSuggestions(List<String> suggestions, boolean completions,
             boolean typedWordValid) {
-        clear();
-        if (suggestions != null) {
-            mSuggestions = new ArrayList<String>(suggestions);
+        final List<String> previous = mSuggestions;
+        final int previousCount = Math.min(previous.size(), MAX_SUGGESTIONS);
+        final List<String> next = suggestions != null
+                ? new ArrayList<String>(suggestions) : EMPTY_LIST;
+        final int count = Math.min(next.size(), MAX_SUGGESTIONS);
+
+        // The first entry whose word or style differs.
+        int firstChange = 0;
+        while (firstChange < count && firstChange < previousCount
+                && next.get(firstChange).equals(previous.get(firstChange))) {
+            firstChange++;
+        }
+        if (typedWordValid != mTypedWordValid) {
+            // Changes which of the first two words is recommended.
+            firstChange = 0;
         }
+        final boolean selected = mSelectedIndex >= 0 || mTouchX != OUT_OF_BOUNDS;
+        mSuggestions = next;
         mTypedWordValid = typedWordValid;
-        scrollTo(0, 0);
-        mTargetScrollX = 0;
-        // Compute the total width
-        onDraw(null);
-        invalidate();
-        requestLayout();
+        mTouchX = OUT_OF_BOUNDS;
+        mSelectedIndex = -1;
+        if (firstChange == count && count == previousCount && !selected) {
+            return;
+        }
+
+        // Lay out the changed entries, keeping the width of unchanged words.
+        int x = firstChange > 0 ? mWordX[firstChange - 1] + mWordWidth[firstChange - 1] : 0;
+        final int dirtyLeft = x;
+        for (int i = firstChange; i < count; i++) {
+            final String suggestion = next.get(i);
+            if (i >= previousCount || !suggestion.equals(previous.get(i))) {
+                mWordWidth[i] = (int) mPaint.measureText(suggestion) + X_GAP * 2;
+            }
+            mWordX[i] = x;
+            x += mWordWidth[i];
+        }
+        final int dirtyRight = Math.max(x, mTotalWidth) + 1;
+        mTotalWidth = x;
+
+        if (getScrollX() != 0 || mTargetScrollX != 0 || selected) {
+            mTargetScrollX = 0;
+            scrollTo(0, 0);
+            invalidate();
+        } else {
+            invalidate(dirtyLeft, 0, dirtyRight, getHeight());
+        }
+        if (getDesiredHeight() != mMeasuredForHeight) {
+            requestLayout();
+        }
     }
 
     public void clear() {
-        mSuggestions = EMPTY_LIST;
-        mTouchX = OUT_OF_BOUNDS;
-        mSelectedIndex = -1;
-        invalidate();
+        setSuggestions(null, false, false);
     }
     
     @Override
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.example.android.softkeyboard;
+
+import android.os.Handler;
+import android.view.inputmethod.InputConnection;
+
+/**
+ * Commits long text to the editor a chunk at a time, each chunk in a batch
+ * edit of its own and in its own main thread message.  A single commit of
+ * all of it would keep the editor busy laying it out, and the keyboard
+ * waiting, for as long as it takes; in chunks, the input and drawing
+ * queued meanwhile are handled between them.
+ *
+ * <p>Anything else sent to the editor must come after the text, so callers
+ * {@link #finish} it first.  It is also finished before the editor changes,
+ * as the connection it writes to is then retargeted.  Only use it from the
+ * main thread.
+ */
+final class ChunkedTextWriter {
+
+    /** Longest chunk committed at once, and the shortest text worth chunking. */
+    static final int CHUNK_SIZE = 1024;
+
+    interface Listener {
+        /** Called once all of the text has been committed. */
+        void onTextWritten();
+    }
+
+    private final Listener mListener;
+    private final Handler mHandler = new Handler();
+    private final Runnable mWriteChunk = new Runnable() {
+        @Override
+        public void run() {
+            writeChunk();
+        }
+    };
+
+    private InputConnection mInputConnection;
+    private CharSequence mText;
+    /** How much of {@link #mText} has been committed. */
+    private int mWritten;
+
+    ChunkedTextWriter(Listener listener) {
+        mListener = listener;
+    }
+
+    boolean isWriting() {
+        return mText != null;
+    }
+
+    /**
+     * Commit <var>text</var> to <var>ic</var>, the first chunk now and the
+     * others in later messages.  Text still being written is finished first.
+     */
+    void start(InputConnection ic, CharSequence text) {
+        finish();
+        mInputConnection = ic;
+        mText = text;
+        mWritten = 0;
+        writeChunk();
+    }
+
+    /** Commit whatever is left of the text now. */
+    void finish() {
+        while (mText != null) {
+            writeChunk();
+        }
+    }
+
+    /** Drop whatever is left of the text, without telling the listener. */
+    void cancel() {
+        mHandler.removeCallbacks(mWriteChunk);
+        mInputConnection = null;
+        mText = null;
+    }
+
+    private void writeChunk() {
+        mHandler.removeCallbacks(mWriteChunk);
+        if (mText == null) {
+            return;
+        }
+        final int length = mText.length();
+        int end = Math.min(mWritten + CHUNK_SIZE, length);
+        if (end < length && Character.isHighSurrogate(mText.charAt(end - 1))) {
+            // Keep the pair together in the next chunk.
+            end--;
+        }
+        final InputConnection ic = mInputConnection;
+        ic.beginBatchEdit();
+        ic.commitText(mText.subSequence(mWritten, end), 1);
+        ic.endBatchEdit();
+        ImeStats.increment(ImeStats.TEXT_CHUNKS);
+        mWritten = end;
+        if (end < length) {
+            mHandler.post(mWriteChunk);
+        } else {
+            mInputConnection = null;
+            mText = null;
+            mListener.onTextWritten();
+        }
+    }
+}
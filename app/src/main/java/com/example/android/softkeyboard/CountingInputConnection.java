@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.softkeyboard;
+
+import android.view.KeyEvent;
+import android.view.inputmethod.InputConnection;
+import android.view.inputmethod.InputConnectionWrapper;
+
+/**
+ * Counts the calls the input method makes to the editor, each of which is a
+ * round trip to another process, in {@link ImeStats}.  The service keeps a
+ * single instance and retargets it at each new connection.
+ */
+final class CountingInputConnection extends InputConnectionWrapper {
+
+    private InputConnection mTarget;
+
+    CountingInputConnection() {
+        super(null, true);
+    }
+
+    /** Wrap <var>target</var>, returning this. */
+    InputConnection wrap(InputConnection target) {
+        if (target != mTarget) {
+            mTarget = target;
+            setTarget(target);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean setComposingText(CharSequence text, int newCursorPosition) {
+        ImeStats.increment(ImeStats.IC_SET_COMPOSING_TEXT);
+        return super.setComposingText(text, newCursorPosition);
+    }
+
+    @Override
+    public boolean commitText(CharSequence text, int newCursorPosition) {
+        ImeStats.increment(ImeStats.IC_COMMIT_TEXT);
+        return super.commitText(text, newCursorPosition);
+    }
+
+    @Override
+    public boolean sendKeyEvent(KeyEvent event) {
+        ImeStats.increment(ImeStats.IC_SEND_KEY_EVENT);
+        return super.sendKeyEvent(event);
+    }
+
+    @Override
+    public int getCursorCapsMode(int reqModes) {
+        ImeStats.increment(ImeStats.IC_GET_CURSOR_CAPS_MODE);
+        return super.getCursorCapsMode(reqModes);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.example.android.softkeyboard;
+
+import android.os.Build;
+import android.os.Handler;
+import android.view.Choreographer;
+
+/**
+ * Runs a task on the main thread once before the next frame, however many
+ * times it is scheduled until then, so that work whose result is only
+ * seen when drawn is done once per frame with the latest state.  From
+ * Jelly Bean on the task runs from a {@link Choreographer} frame callback;
+ * before, from a message posted to the main thread, which still coalesces
+ * whatever is scheduled while handling one event.
+ *
+ * <p>Only use it from the main thread.
+ */
+final class FrameScheduler {
+
+    private final Runnable mTask;
+    private final Runnable mPosted = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+    private final Handler mHandler = new Handler();
+    /** Null before Jelly Bean. */
+    private final FrameCallbacks mFrameCallbacks;
+    private boolean mScheduled;
+
+    FrameScheduler(Runnable task) {
+        mTask = task;
+        mFrameCallbacks = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN
+                ? new FrameCallbacks() : null;
+    }
+
+    /**
+     * Have the task run before the next frame.  Returns false if it was
+     * already going to, in which case this call is coalesced with that.
+     */
+    boolean schedule() {
+        if (mScheduled) {
+            return false;
+        }
+        mScheduled = true;
+        if (mFrameCallbacks != null) {
+            mFrameCallbacks.post();
+        } else {
+            mHandler.post(mPosted);
+        }
+        return true;
+    }
+
+    /**
+     * Run the task now if it is scheduled, for a caller about to use its
+     * result.  Returns whether it ran.
+     */
+    boolean flush() {
+        if (!mScheduled) {
+            return false;
+        }
+        cancel();
+        mTask.run();
+        return true;
+    }
+
+    void cancel() {
+        if (!mScheduled) {
+            return;
+        }
+        mScheduled = false;
+        if (mFrameCallbacks != null) {
+            mFrameCallbacks.remove();
+        } else {
+            mHandler.removeCallbacks(mPosted);
+        }
+    }
+
+    /** Kept apart so that the Choreographer is only loaded where it exists. */
+    private final class FrameCallbacks implements Choreographer.FrameCallback {
+        private final Choreographer mChoreographer = Choreographer.getInstance();
+
+        void post() {
+            mChoreographer.postFrameCallback(this);
+        }
+
+        void remove() {
+            mChoreographer.removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.softkeyboard;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.PrecisionModel;
+
+import java.io.PrintWriter;
+
+/**
+ * Staged start-up of the input method.  The service builds only what it needs
+ * to draw the keyboard on the main thread; everything the suggestion code
+ * needs (JTS class loading, the language pack with its word list and key
+ * geometry) is prepared here on the {@link BackgroundExecutor}, and the
+ * listener is told on the main thread once suggestions can be produced.
+ * Until then the suggestion code finds the factory and the pack missing
+ * and offers what it can without them; the stages each record when they
+ * are done, for {@link #dump}.
+ *
+ * <p>The time from {@link #start} to the first drawn keyboard, and to
+ * suggestions being ready, is recorded and reported through {@link #dump}.
+ */
+final class ImeInitializer {
+    private static final String TAG = "ImeInitializer";
+
+    interface Listener {
+        /** Called on the main thread once every background stage has finished. */
+        void onSuggestionResourcesReady();
+    }
+
+    private long mStartTime = -1;
+    private long mFirstDrawTime = -1;
+    private volatile long mReadyTime = -1;
+
+    private volatile boolean mGeometryFactoryReady;
+    private volatile boolean mLanguagePackReady;
+
+    private volatile GeometryFactory mGeometryFactory;
+
+    /**
+     * Start the background stages.  Must be called on the main thread,
+     * as early as possible in {@link android.app.Service#onCreate}.
+     */
+    void start(Context context, final String locale, final Listener listener) {
+        mStartTime = SystemClock.uptimeMillis();
+        final LanguagePacks languagePacks = LanguagePacks.getInstance(context);
+        BackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                loadGeometryFactory();
+                // Stage two: the pack of the language we start in.
+                mLanguagePackReady = languagePacks.getBlocking(locale) != null;
+                mReadyTime = SystemClock.uptimeMillis();
+                if (SoftKeyboard.DEBUG) {
+                    Log.d(TAG, "Suggestion resources ready after "
+                            + (mReadyTime - mStartTime) + " ms");
+                }
+                BackgroundExecutor.postToMain(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onSuggestionResourcesReady();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stage one: pull in the JTS classes and build the factory the
+     * suggestion code shares, so the first keystroke does not pay for it.
+     */
+    private void loadGeometryFactory() {
+        final GeometryFactory factory = new GeometryFactory(new PrecisionModel(0.001));
+        final Coordinate[] ring = new Coordinate[] {
+                new Coordinate(0, 0), new Coordinate(1, 0),
+                new Coordinate(1, 1), new Coordinate(0, 0)
+        };
+        factory.createPolygon(factory.createLinearRing(ring)).getArea();
+        mGeometryFactory = factory;
+        mGeometryFactoryReady = true;
+    }
+
+    /**
+     * Called on the main thread when the keyboard view has drawn for the
+     * first time.  Only the first call after {@link #start} is recorded.
+     */
+    void onFirstDraw() {
+        if (mFirstDrawTime >= 0 || mStartTime < 0) return;
+        mFirstDrawTime = SystemClock.uptimeMillis();
+        Log.i(TAG, "Cold start: keyboard drawn after " + (mFirstDrawTime - mStartTime) + " ms");
+    }
+
+    /** The shared geometry factory, or null until stage one is done. */
+    GeometryFactory getGeometryFactory() {
+        return mGeometryFactory;
+    }
+
+    void dump(PrintWriter pw) {
+        pw.println("Cold start:");
+        pw.println("  firstDrawMs=" + (mFirstDrawTime < 0 ? "pending" : mFirstDrawTime - mStartTime));
+        pw.println("  suggestionsReadyMs=" + (mReadyTime < 0 ? "pending" : mReadyTime - mStartTime));
+        pw.println("  geometryFactoryReady=" + mGeometryFactoryReady
+                + " languagePackReady=" + mLanguagePackReady);
+    }
+}
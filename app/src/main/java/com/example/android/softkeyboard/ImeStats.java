@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.softkeyboard;
+
+import android.os.Debug;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process-wide counters of the work the input method causes: the garbage
+ * each keystroke allocates, the calls it makes into the editor over the
+ * {@link android.view.inputmethod.InputConnection}, and how often the
+ * candidate strip is laid out and drawn.  They also count how often memory
+ * pressure made the service trim its caches, and roughly how many bytes
+ * those trims released.  Counters are lock free, so any thread may bump
+ * them; they are printed by the service's dump.
+ *
+ * <p>Allocations are only counted while {@link #setCountingAllocations} is
+ * on, as the runtime's allocation counting slows every allocation down.
+ */
+final class ImeStats {
+
+    static final int KEYS = 0;
+    static final int KEY_ALLOCATIONS = 1;
+    static final int KEY_ALLOCATED_BYTES = 2;
+    static final int IC_SET_COMPOSING_TEXT = 3;
+    static final int IC_COMMIT_TEXT = 4;
+    static final int IC_SEND_KEY_EVENT = 5;
+    static final int IC_GET_CURSOR_CAPS_MODE = 6;
+    static final int CANDIDATES_LAYOUT = 7;
+    static final int CANDIDATES_DRAW = 8;
+    static final int TRIMS = 9;
+    static final int TRIMMED_BYTES = 10;
+    static final int KEYBOARD_BUILDS = 11;
+    static final int KEYBOARD_BUILD_NANOS = 12;
+    static final int CANDIDATES_COALESCED = 13;
+    static final int TEXT_CHUNKS = 14;
+
+    private static final String[] NAMES = {
+        "keys",
+        "keyAllocations",
+        "keyAllocatedBytes",
+        "setComposingText",
+        "commitText",
+        "sendKeyEvent",
+        "getCursorCapsMode",
+        "candidatesLayout",
+        "candidatesDraw",
+        "trims",
+        "trimmedBytes",
+        "keyboardBuilds",
+        "keyboardBuildNanos",
+        "candidatesCoalesced",
+        "textChunks",
+    };
+
+    private static final AtomicLongArray sCounters = new AtomicLongArray(NAMES.length);
+
+    private static volatile boolean sCountingAllocations;
+
+    private ImeStats() {
+    }
+
+    static void increment(int counter) {
+        sCounters.incrementAndGet(counter);
+    }
+
+    static void add(int counter, long delta) {
+        sCounters.addAndGet(counter, delta);
+    }
+
+    static long get(int counter) {
+        return sCounters.get(counter);
+    }
+
+    /** Start or stop the runtime's allocation counting. */
+    @SuppressWarnings("deprecation")
+    static void setCountingAllocations(boolean counting) {
+        if (counting == sCountingAllocations) return;
+        sCountingAllocations = counting;
+        if (counting) {
+            Debug.startAllocCounting();
+        } else {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    /**
+     * Objects allocated so far by the calling thread, to be passed to
+     * {@link #endKey} with {@link #threadAllocatedBytes}; 0 unless counting.
+     */
+    @SuppressWarnings("deprecation")
+    static long threadAllocations() {
+        return sCountingAllocations ? Debug.getThreadAllocCount() : 0;
+    }
+
+    @SuppressWarnings("deprecation")
+    static long threadAllocatedBytes() {
+        return sCountingAllocations ? Debug.getThreadAllocSize() : 0;
+    }
+
+    /**
+     * Count a keystroke, and what the calling thread allocated since
+     * <var>allocations</var> and <var>bytes</var> were read.
+     */
+    static void endKey(long allocations, long bytes) {
+        sCounters.incrementAndGet(KEYS);
+        if (sCountingAllocations) {
+            sCounters.addAndGet(KEY_ALLOCATIONS, threadAllocations() - allocations);
+            sCounters.addAndGet(KEY_ALLOCATED_BYTES, threadAllocatedBytes() - bytes);
+        }
+    }
+
+    static void dump(PrintWriter pw) {
+        pw.println("Counters (allocations " + (sCountingAllocations ? "counted" : "not counted")
+                + "):");
+        final long keys = sCounters.get(KEYS);
+        for (int i = 0; i < NAMES.length; i++) {
+            final long value = sCounters.get(i);
+            pw.print("  " + NAMES[i] + "=" + value);
+            if (i != KEYS && keys > 0) {
+                pw.print(" (" + (value * 100 / keys) / 100f + " per key)");
+            }
+            pw.println();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.example.android.softkeyboard;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A {@link WordSource} whose rows are kept in memory and changed by
+ * calls, standing in for a real source when testing; debuggable builds
+ * of the keyboard take words for it from dumpsys, see
+ * {@link SoftKeyboard#dump}.  Thread safe.
+ */
+final class InMemoryWordSource implements WordSource {
+
+    private final String mName;
+    private final Map<Long, String> mRows = new HashMap<Long, String>();
+    /** Rows changed since the last read, with their word or null if deleted. */
+    private final Map<Long, String> mChanges = new HashMap<Long, String>();
+    private boolean mRead;
+    private Listener mListener;
+
+    InMemoryWordSource(String name) {
+        mName = name;
+    }
+
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    @Override
+    public synchronized void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /** Add or change row <var>rowId</var>. */
+    void put(long rowId, String word) {
+        final Listener listener;
+        synchronized (this) {
+            mRows.put(rowId, word);
+            mChanges.put(rowId, word);
+            listener = mListener;
+        }
+        if (listener != null) {
+            listener.onWordSourceChanged(this);
+        }
+    }
+
+    void delete(long rowId) {
+        final Listener listener;
+        synchronized (this) {
+            if (mRows.remove(rowId) == null) {
+                return;
+            }
+            mChanges.put(rowId, null);
+            listener = mListener;
+        }
+        if (listener != null) {
+            listener.onWordSourceChanged(this);
+        }
+    }
+
+    /** The id of a row holding <var>word</var>, or -1 if there is none. */
+    synchronized long find(String word) {
+        for (Map.Entry<Long, String> row : mRows.entrySet()) {
+            if (row.getValue().equals(word)) {
+                return row.getKey();
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public synchronized void readChanges(Sink sink) {
+        final Map<Long, String> changes = mRead ? mChanges : mRows;
+        for (Map.Entry<Long, String> change : changes.entrySet()) {
+            if (change.getValue() != null) {
+                sink.onRowChanged(change.getKey(), change.getValue());
+            } else {
+                sink.onRowDeleted(change.getKey());
+            }
+        }
+        mChanges.clear();
+        mRead = true;
+    }
+}
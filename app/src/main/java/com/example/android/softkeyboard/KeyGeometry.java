@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.softkeyboard;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+
+/**
+ * Table of key centres for the letters of a keyboard layout, in key units.
+ * The table is parsed once from its JSON description and then looked up with
+ * plain array indexing, so it is cheap enough to consult on every keystroke.
+ */
+final class KeyGeometry {
+
+    /** The QWERTY layout used by {@link R.xml#qwerty}, one unit per key. */
+    static final String QWERTY_JSON = "{  \"keyboard\": {    \"q\": {      \"x\": \"0.0\",      \"y\": \"0.0\"    },    \"w\": {      \"x\": \"1.0\",      \"y\": \"0.0\"    },    \"e\": {      \"x\": \"2.0\",      \"y\": \"0.0\"    },    \"r\": {      \"x\": \"3.0\",      \"y\": \"0.0\"    },    \"t\": {      \"x\": \"4.0\",      \"y\": \"0.0\"    },    \"y\": {      \"x\": \"5.0\",      \"y\": \"0.0\"    },    \"u\": {      \"x\": \"6.0\",      \"y\": \"0.0\"    },    \"i\": {      \"x\": \"7.0\",      \"y\": \"0.0\"    },    \"o\": {      \"x\": \"8.0\",      \"y\": \"0.0\"    },    \"p\": {      \"x\": \"9.0\",      \"y\": \"0.0\"    },    \"a\": {      \"x\": \"0.5\",      \"y\": \"1.0\"    },    \"s\": {      \"x\": \"1.5\",      \"y\": \"1.0\"    },    \"d\": {      \"x\": \"2.5\",      \"y\": \"1.0\"    },    \"f\": {      \"x\": \"3.5\",      \"y\": \"1.0\"    },    \"g\": {      \"x\": \"4.5\",      \"y\": \"1.0\"    },    \"h\": {      \"x\": \"5.5\",      \"y\": \"1.0\"    },    \"j\": {      \"x\": \"6.5\",      \"y\": \"1.0\"    },    \"k\": {      \"x\": \"7.5\",      \"y\": \"1.0\"    },    \"l\": {      \"x\": \"8.5\",      \"y\": \"1.0\"    },    \"z\": {      \"x\": \"1.5\",      \"y\": \"2.0\"    },    \"x\": {      \"x\": \"2.5\",      \"y\": \"2.0\"    },    \"c\": {      \"x\": \"3.5\",      \"y\": \"2.0\"    },    \"v\": {      \"x\": \"4.5\",      \"y\": \"2.0\"    },    \"b\": {      \"x\": \"5.5\",      \"y\": \"2.0\"    },    \"n\": {      \"x\": \"6.5\",      \"y\": \"2.0\"    },    \"m\": {      \"x\": \"7.5\",      \"y\": \"2.0\"    }  }}";
+
+    private static final int ALPHABET_SIZE = 26;
+
+    private final double[] mX = new double[ALPHABET_SIZE];
+    private final double[] mY = new double[ALPHABET_SIZE];
+    private final boolean[] mPresent = new boolean[ALPHABET_SIZE];
+
+    private KeyGeometry() {
+    }
+
+    /**
+     * Parse a geometry description of the form
+     * <code>{"keyboard": {"q": {"x": "0.0", "y": "0.0"}, ...}}</code>.
+     * Entries that are not single lower case letters are ignored.
+     */
+    static KeyGeometry fromJson(String json) throws JSONException {
+        final KeyGeometry geometry = new KeyGeometry();
+        final JSONObject keyboard = new JSONObject(json).getJSONObject("keyboard");
+        final Iterator<?> names = keyboard.keys();
+        while (names.hasNext()) {
+            final String name = (String) names.next();
+            final int index = indexOf(name.length() == 1 ? name.charAt(0) : 0);
+            if (index < 0) continue;
+            final JSONObject key = keyboard.getJSONObject(name);
+            geometry.mX[index] = key.getDouble("x");
+            geometry.mY[index] = key.getDouble("y");
+            geometry.mPresent[index] = true;
+        }
+        return geometry;
+    }
+
+    /**
+     * Returns the table slot for the given character, folding upper case
+     * letters, or -1 if this table has no key for it.
+     */
+    static int indexOf(int c) {
+        final int lower = Character.toLowerCase(c);
+        return lower >= 'a' && lower <= 'z' ? lower - 'a' : -1;
+    }
+
+    boolean hasKey(int c) {
+        final int index = indexOf(c);
+        return index >= 0 && mPresent[index];
+    }
+
+    /** X coordinate of the key for <var>c</var>; only valid if {@link #hasKey}. */
+    double getX(int c) {
+        return mX[indexOf(c)];
+    }
+
+    /** Y coordinate of the key for <var>c</var>; only valid if {@link #hasKey}. */
+    double getY(int c) {
+        return mY[indexOf(c)];
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.softkeyboard;
+
+import android.content.res.Resources;
+import android.graphics.drawable.Drawable;
+import android.util.SparseArray;
+
+/**
+ * Holds the icons and labels that get swapped onto keys at run time (the
+ * enter key variants and the per-subtype space bar icons), so that focusing
+ * a field or switching subtypes never goes back to the resources.  Since the
+ * icons depend on the configuration, a new cache is made whenever the
+ * keyboards are rebuilt.
+ */
+final class KeyIconCache {
+    private final Resources mResources;
+    private final SparseArray<Drawable> mIcons = new SparseArray<Drawable>();
+    private final SparseArray<CharSequence> mLabels = new SparseArray<CharSequence>();
+
+    KeyIconCache(Resources res) {
+        mResources = res;
+        getIcon(R.drawable.sym_keyboard_return);
+        getIcon(R.drawable.sym_keyboard_search);
+        getLabel(R.string.label_go_key);
+        getLabel(R.string.label_next_key);
+        getLabel(R.string.label_send_key);
+    }
+
+    Drawable getIcon(int resId) {
+        Drawable icon = mIcons.get(resId);
+        if (icon == null) {
+            icon = mResources.getDrawable(resId);
+            mIcons.put(resId, icon);
+        }
+        return icon;
+    }
+
+    CharSequence getLabel(int resId) {
+        CharSequence label = mLabels.get(resId);
+        if (label == null) {
+            label = mResources.getText(resId);
+            mLabels.put(resId, label);
+        }
+        return label;
+    }
+}
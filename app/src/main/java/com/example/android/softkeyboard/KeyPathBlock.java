@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.softkeyboard;
+
+/**
+ * The key paths of a block of words, stored as a struct of arrays: the
+ * points of every path one after the other in flat coordinate arrays, with
+ * per-word offsets into them.  Next to each point are the delta to the
+ * following point and the inverse of its squared length, so the segments
+ * need no work at query time.
+ *
+ * <p>{@link #distancesTo} measures the discrete Hausdorff distance from a
+ * typed path to every path of the block in a few tight loops over primitive
+ * arrays, where building a JTS geometry per word would allocate a dozen
+ * objects and chase pointers through them.  The distance is the one JTS's
+ * <code>DiscreteHausdorffDistance</code> computes with a densify fraction of
+ * 1/{@link #SUBDIVISIONS}: each path's vertices, and the points dividing its
+ * segments, are measured to the nearest segment of the other path.  It is
+ * computed in floats.
+ *
+ * <p>Blocks are filled with {@link #add} and emptied with {@link #clear};
+ * their arrays grow as needed and are reused.  Not thread safe.
+ */
+final class KeyPathBlock {
+
+    /** Parts each segment is divided into for measuring. */
+    static final int SUBDIVISIONS = 4;
+
+    private static final float STEP = 1f / SUBDIVISIONS;
+
+    private final KeyGeometry mGeometry;
+
+    private int mCount;
+    private int[] mWords;
+    /** Where each path's points start; entry <code>mCount</code> is the end. */
+    private int[] mOffsets;
+
+    private float[] mX;
+    private float[] mY;
+    /** Delta from each point to the next one of its path; 0 for a last point. */
+    private float[] mDeltaX;
+    private float[] mDeltaY;
+    /** Inverse squared length of the segment starting at each point, or 0. */
+    private float[] mInverseLengthSquared;
+
+    KeyPathBlock(KeyGeometry geometry, int words, int points) {
+        mGeometry = geometry;
+        mWords = new int[words];
+        mOffsets = new int[words + 1];
+        mX = new float[points];
+        mY = new float[points];
+        mDeltaX = new float[points];
+        mDeltaY = new float[points];
+        mInverseLengthSquared = new float[points];
+    }
+
+    void clear() {
+        mCount = 0;
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    /** The id the path at <var>index</var> was added with. */
+    int getWord(int index) {
+        return mWords[index];
+    }
+
+    /**
+     * Append the path of the key centres of <var>text</var>, skipping
+     * repeats of the same key, under the id <var>word</var>.  Returns false,
+     * adding nothing, if a letter has no key or the path does not span at
+     * least two distinct keys.
+     */
+    boolean add(int word, CharSequence text) {
+        final int start = mOffsets[mCount];
+        final int length = text.length();
+        if (mWords.length == mCount) {
+            mWords = grow(mWords, mCount * 2);
+            mOffsets = grow(mOffsets, mCount * 2 + 1);
+        }
+        if (mX.length < start + length) {
+            final int points = Math.max(start + length, mX.length * 2);
+            mX = grow(mX, points);
+            mY = grow(mY, points);
+            mDeltaX = grow(mDeltaX, points);
+            mDeltaY = grow(mDeltaY, points);
+            mInverseLengthSquared = grow(mInverseLengthSquared, points);
+        }
+
+        int end = start;
+        for (int i = 0; i < length; i++) {
+            final char c = text.charAt(i);
+            if (!mGeometry.hasKey(c)) {
+                return false;
+            }
+            final float x = (float) mGeometry.getX(c);
+            final float y = (float) mGeometry.getY(c);
+            if (end > start && x == mX[end - 1] && y == mY[end - 1]) {
+                continue;
+            }
+            mX[end] = x;
+            mY[end] = y;
+            end++;
+        }
+        if (end - start < 2) {
+            return false;
+        }
+        for (int p = start; p < end - 1; p++) {
+            final float dx = mX[p + 1] - mX[p];
+            final float dy = mY[p + 1] - mY[p];
+            mDeltaX[p] = dx;
+            mDeltaY[p] = dy;
+            mInverseLengthSquared[p] = 1f / (dx * dx + dy * dy);
+        }
+        mDeltaX[end - 1] = 0;
+        mDeltaY[end - 1] = 0;
+        mInverseLengthSquared[end - 1] = 0;
+
+        mWords[mCount] = word;
+        mOffsets[++mCount] = end;
+        return true;
+    }
+
+    /**
+     * Write to <code>out[i]</code> the Hausdorff distance between path
+     * <var>index</var> of <var>typed</var> and path i of this block, for
+     * every path of the block.
+     */
+    void distancesTo(KeyPathBlock typed, int index, float[] out) {
+        final int typedFrom = typed.mOffsets[index];
+        final int typedTo = typed.mOffsets[index + 1];
+        for (int i = 0; i < mCount; i++) {
+            final int from = mOffsets[i];
+            final int to = mOffsets[i + 1];
+            final float there = directed(typed, typedFrom, typedTo, this, from, to, 0);
+            final float back = directed(this, from, to, typed, typedFrom, typedTo, there);
+            out[i] = (float) Math.sqrt(Math.max(there, back));
+        }
+    }
+
+    /**
+     * The largest squared distance from a sample of path
+     * <code>[aFrom, aTo)</code> of <var>a</var> to the nearest segment of
+     * path <code>[bFrom, bTo)</code> of <var>b</var>, or <var>atLeast</var>
+     * if that is larger.  Knowing a lower bound lets the search for a
+     * sample's nearest segment stop as soon as it cannot raise the maximum.
+     */
+    private static float directed(KeyPathBlock a, int aFrom, int aTo,
+            KeyPathBlock b, int bFrom, int bTo, float atLeast) {
+        final float[] ax = a.mX;
+        final float[] ay = a.mY;
+        final float[] adx = a.mDeltaX;
+        final float[] ady = a.mDeltaY;
+        final float[] bx = b.mX;
+        final float[] by = b.mY;
+        final float[] bdx = b.mDeltaX;
+        final float[] bdy = b.mDeltaY;
+        final float[] bil = b.mInverseLengthSquared;
+        final int bLast = bTo - 1;
+
+        float max = atLeast;
+        for (int p = aFrom; p < aTo; p++) {
+            // The vertex, then the points dividing the segment after it.
+            final int samples = p < aTo - 1 ? SUBDIVISIONS : 1;
+            for (int s = 0; s < samples; s++) {
+                final float px = ax[p] + s * STEP * adx[p];
+                final float py = ay[p] + s * STEP * ady[p];
+                float min = Float.MAX_VALUE;
+                for (int q = bFrom; q < bLast; q++) {
+                    final float ox = px - bx[q];
+                    final float oy = py - by[q];
+                    float t = (ox * bdx[q] + oy * bdy[q]) * bil[q];
+                    t = t < 0 ? 0 : (t > 1 ? 1 : t);
+                    final float ex = ox - t * bdx[q];
+                    final float ey = oy - t * bdy[q];
+                    final float d = ex * ex + ey * ey;
+                    if (d < min) {
+                        min = d;
+                        if (min <= max) break;
+                    }
+                }
+                if (min > max) max = min;
+            }
+        }
+        return max;
+    }
+
+    private static int[] grow(int[] array, int size) {
+        final int[] grown = new int[size];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    private static float[] grow(float[] array, int size) {
+        final float[] grown = new float[size];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
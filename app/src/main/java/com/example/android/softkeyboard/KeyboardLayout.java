@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.softkeyboard;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A keyboard layout compiled ahead of time from the XML the framework's
+ * <code>Keyboard</code> parses, so that the keyboard can be built from it
+ * without going through an <code>XmlResourceParser</code> and typed arrays
+ * key by key.  The layout tool in the tools module writes one for each
+ * layout at build time, and {@link LatinKeyboard#load} reads it.
+ *
+ * <p>It holds what the XML says and nothing resolved against the device:
+ * sizes stay fractions of the display, dimensions with a unit, or the names
+ * of dimension resources, and icons stay drawable names, since all of those
+ * depend on the configuration.  The binary form is
+ * <pre>
+ * int magic, int version, 4 dimensions: key width, key height,
+ *     horizontal gap, vertical gap,
+ * int row count, then per row:
+ *   4 dimensions, int row edge flags, int mode, int key count, then per key:
+ *     int code count, codes, 3 dimensions: width, height, gap,
+ *     int flags, int edge flags, 6 strings: label, icon, icon preview,
+ *     popup characters, popup keyboard, output text
+ * </pre>
+ * big endian, where a dimension is a byte kind followed by a float value,
+ * a byte unit or a UTF resource name as the kind needs, and a string is a
+ * boolean presence flag then, if present, UTF.
+ */
+final class KeyboardLayout {
+
+    static final int MAGIC = 0x4b42444c; // "KBDL"
+    static final int VERSION = 1;
+
+    /** Not given: the row's or the keyboard's value applies. */
+    static final int KIND_INHERIT = 0;
+    /** A fraction of the display width or height. */
+    static final int KIND_FRACTION = 1;
+    /** A value in one of the UNIT_ units. */
+    static final int KIND_DIMENSION = 2;
+    /** A dimension resource, by name. */
+    static final int KIND_RESOURCE = 3;
+
+    // The units of KIND_DIMENSION, numbered as TypedValue.COMPLEX_UNIT_*.
+    static final int UNIT_PX = 0;
+    static final int UNIT_DIP = 1;
+    static final int UNIT_SP = 2;
+    static final int UNIT_PT = 3;
+    static final int UNIT_IN = 4;
+    static final int UNIT_MM = 5;
+
+    static final int FLAG_REPEATABLE = 1;
+    static final int FLAG_MODIFIER = 2;
+    static final int FLAG_STICKY = 4;
+
+    static final class Dimension {
+        static final Dimension INHERIT = new Dimension(KIND_INHERIT, 0, 0, null);
+
+        final int kind;
+        final float value;
+        final int unit;
+        final String resource;
+
+        Dimension(int kind, float value, int unit, String resource) {
+            this.kind = kind;
+            this.value = value;
+            this.unit = unit;
+            this.resource = resource;
+        }
+    }
+
+    static final class Row {
+        Dimension keyWidth = Dimension.INHERIT;
+        Dimension keyHeight = Dimension.INHERIT;
+        Dimension horizontalGap = Dimension.INHERIT;
+        Dimension verticalGap = Dimension.INHERIT;
+        int rowEdgeFlags;
+        int mode;
+        final List<Key> keys = new ArrayList<Key>();
+    }
+
+    static final class Key {
+        int[] codes;
+        Dimension width = Dimension.INHERIT;
+        Dimension height = Dimension.INHERIT;
+        Dimension gap = Dimension.INHERIT;
+        int flags;
+        int edgeFlags;
+        String label;
+        String icon;
+        String iconPreview;
+        String popupCharacters;
+        String popupKeyboard;
+        String outputText;
+    }
+
+    Dimension keyWidth = Dimension.INHERIT;
+    Dimension keyHeight = Dimension.INHERIT;
+    Dimension horizontalGap = Dimension.INHERIT;
+    Dimension verticalGap = Dimension.INHERIT;
+    final List<Row> rows = new ArrayList<Row>();
+
+    void write(OutputStream stream) throws IOException {
+        final DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeDimension(out, keyWidth);
+        writeDimension(out, keyHeight);
+        writeDimension(out, horizontalGap);
+        writeDimension(out, verticalGap);
+        out.writeInt(rows.size());
+        for (Row row : rows) {
+            writeDimension(out, row.keyWidth);
+            writeDimension(out, row.keyHeight);
+            writeDimension(out, row.horizontalGap);
+            writeDimension(out, row.verticalGap);
+            out.writeInt(row.rowEdgeFlags);
+            out.writeInt(row.mode);
+            out.writeInt(row.keys.size());
+            for (Key key : row.keys) {
+                out.writeInt(key.codes.length);
+                for (int code : key.codes) {
+                    out.writeInt(code);
+                }
+                writeDimension(out, key.width);
+                writeDimension(out, key.height);
+                writeDimension(out, key.gap);
+                out.writeInt(key.flags);
+                out.writeInt(key.edgeFlags);
+                writeString(out, key.label);
+                writeString(out, key.icon);
+                writeString(out, key.iconPreview);
+                writeString(out, key.popupCharacters);
+                writeString(out, key.popupKeyboard);
+                writeString(out, key.outputText);
+            }
+        }
+        out.flush();
+    }
+
+    /** Read a layout written by {@link #write}. */
+    static KeyboardLayout read(InputStream stream) throws IOException {
+        final DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a keyboard layout of version " + VERSION);
+        }
+        final KeyboardLayout layout = new KeyboardLayout();
+        layout.keyWidth = readDimension(in);
+        layout.keyHeight = readDimension(in);
+        layout.horizontalGap = readDimension(in);
+        layout.verticalGap = readDimension(in);
+        final int rowCount = in.readInt();
+        for (int r = 0; r < rowCount; r++) {
+            final Row row = new Row();
+            row.keyWidth = readDimension(in);
+            row.keyHeight = readDimension(in);
+            row.horizontalGap = readDimension(in);
+            row.verticalGap = readDimension(in);
+            row.rowEdgeFlags = in.readInt();
+            row.mode = in.readInt();
+            final int keyCount = in.readInt();
+            for (int k = 0; k < keyCount; k++) {
+                final Key key = new Key();
+                key.codes = new int[in.readInt()];
+                for (int c = 0; c < key.codes.length; c++) {
+                    key.codes[c] = in.readInt();
+                }
+                key.width = readDimension(in);
+                key.height = readDimension(in);
+                key.gap = readDimension(in);
+                key.flags = in.readInt();
+                key.edgeFlags = in.readInt();
+                key.label = readString(in);
+                key.icon = readString(in);
+                key.iconPreview = readString(in);
+                key.popupCharacters = readString(in);
+                key.popupKeyboard = readString(in);
+                key.outputText = readString(in);
+                row.keys.add(key);
+            }
+            layout.rows.add(row);
+        }
+        return layout;
+    }
+
+    private static void writeDimension(DataOutputStream out, Dimension dimension)
+            throws IOException {
+        out.writeByte(dimension.kind);
+        switch (dimension.kind) {
+            case KIND_FRACTION:
+                out.writeFloat(dimension.value);
+                break;
+            case KIND_DIMENSION:
+                out.writeFloat(dimension.value);
+                out.writeByte(dimension.unit);
+                break;
+            case KIND_RESOURCE:
+                out.writeUTF(dimension.resource);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static Dimension readDimension(DataInputStream in) throws IOException {
+        final int kind = in.readUnsignedByte();
+        switch (kind) {
+            case KIND_INHERIT:
+                return Dimension.INHERIT;
+            case KIND_FRACTION:
+                return new Dimension(kind, in.readFloat(), 0, null);
+            case KIND_DIMENSION:
+                final float value = in.readFloat();
+                return new Dimension(kind, value, in.readUnsignedByte(), null);
+            case KIND_RESOURCE:
+                return new Dimension(kind, 0, 0, in.readUTF());
+            default:
+                throw new IOException("Unknown dimension kind " + kind);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.softkeyboard;
+
+import android.content.res.Resources;
+import android.util.Log;
+
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+import org.json.JSONException;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * The suggestion resources of one input language: its word list, its word
+ * separators, the key geometry of its layout and an index of the shapes its
+ * words trace over that layout.  Packs are immutable once loaded, so they
+ * can be shared between threads; see {@link LanguagePacks} for how they are
+ * loaded and cached.
+ */
+final class LanguagePack {
+    private static final String TAG = "LanguagePack";
+
+    static final String DEFAULT_LOCALE = "en_US";
+
+    /** Words scanned between two looks at the clock; a power of two. */
+    private static final int DEADLINE_CHECK_INTERVAL = 256;
+
+    /** False positive rate wanted of the filter of known words. */
+    private static final double WORD_FILTER_FALSE_POSITIVE_RATE = 0.01;
+    /** Memory budget of the filter, which raises the rate for huge lexicons. */
+    private static final int WORD_FILTER_MAX_BYTES = 256 * 1024;
+
+    /** Snapshot section of the shape table computed for a locale. */
+    private static final String SNAPSHOT_SECTION_PREFIX = "shapes/";
+
+    private final String mLocale;
+    private final String mWordSeparators;
+    private final KeyGeometry mKeyGeometry;
+
+    /** Lower case words, sorted. */
+    private final String[] mWords;
+    /** Frequency of each entry of {@link #mWords}, 1-255. */
+    private final int[] mFrequencies;
+    /** Key path length of each word, 0 if it has no shape. */
+    private final float[] mPathLengths;
+    /** Key path bounds of each word: min x, min y, max x, max y. */
+    private final float[] mPathEnvelopes;
+    /** Shape descriptors of the words, identified by their index. */
+    private final ShapeIndex mShapeIndex;
+    /** The words, for constant time validity checks. */
+    private final WordFilter mWordFilter;
+    /** The letters likely to follow each prefix of the words. */
+    private final PrefixModel mPrefixModel;
+
+    private LanguagePack(String locale, String wordSeparators, KeyGeometry keyGeometry,
+            ShapeTable table, PrefixModel prefixModel) {
+        mLocale = locale;
+        mWordSeparators = wordSeparators;
+        mKeyGeometry = keyGeometry;
+        mWords = table.getWords();
+        mFrequencies = table.getFrequencies();
+        mPathLengths = table.getPathLengths();
+        mPathEnvelopes = table.getEnvelopes();
+        mShapeIndex = table.buildIndex();
+        mWordFilter = WordFilter.create(mWords.length, WORD_FILTER_FALSE_POSITIVE_RATE,
+                WORD_FILTER_MAX_BYTES);
+        for (String word : mWords) {
+            mWordFilter.add(word);
+        }
+        mPrefixModel = prefixModel != null ? prefixModel : PrefixModel.build(mWords, mFrequencies);
+    }
+
+    /**
+     * Load the pack for a subtype locale such as "en_GB".  If the lexicon
+     * builder has produced a shape table for the locale (a raw resource
+     * named like <code>shapes_en_gb</code>), it is used as is.  Otherwise a
+     * table computed by an earlier process is taken from the
+     * <var>snapshot</var>, and failing that the word list is read, every
+     * word's shape computed, and the table put in the snapshot for the next
+     * process.  Either way this is far too slow for the main thread.
+     *
+     * <p>The prefix model is likewise read from a raw resource named like
+     * <code>prefixes_en_gb</code>, or built from the words.
+     */
+    static LanguagePack load(Resources res, WarmStartSnapshot snapshot, String locale)
+            throws IOException, JSONException {
+        final KeyGeometry keyGeometry = KeyGeometry.fromJson(KeyGeometry.QWERTY_JSON);
+        ShapeTable table = null;
+        final int tableResId = res.getIdentifier("shapes_" + locale.toLowerCase(), "raw",
+                res.getResourcePackageName(R.raw.words_en_us));
+        if (tableResId != 0) {
+            table = readTable(new BufferedInputStream(res.openRawResource(tableResId)), locale);
+        }
+        final String section = SNAPSHOT_SECTION_PREFIX + locale;
+        if (table == null) {
+            final InputStream in = snapshot.get(section);
+            if (in != null) {
+                table = readTable(in, locale);
+            }
+        }
+        if (table == null) {
+            final long start = System.nanoTime();
+            final InputStream in = res.openRawResource(getWordListResId(locale));
+            try {
+                table = ShapeTable.fromWordList(in);
+            } finally {
+                in.close();
+            }
+            table.compute(new ShapeDescriptor(keyGeometry, new GeometryFactory()),
+                    0, table.size());
+            Log.i(TAG, "Computed shapes of " + locale + " in "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            table.write(bytes);
+            snapshot.put(section, true, bytes.toByteArray());
+            snapshot.saveAsync();
+        }
+        PrefixModel prefixModel = null;
+        final int prefixesResId = res.getIdentifier("prefixes_" + locale.toLowerCase(), "raw",
+                res.getResourcePackageName(R.raw.words_en_us));
+        if (prefixesResId != 0) {
+            final InputStream in = new BufferedInputStream(res.openRawResource(prefixesResId));
+            try {
+                prefixModel = PrefixModel.read(in);
+            } catch (IOException e) {
+                Log.w(TAG, "Ignoring prefix model for " + locale, e);
+            } finally {
+                in.close();
+            }
+        }
+        return new LanguagePack(locale, res.getString(R.string.word_separators),
+                keyGeometry, table, prefixModel);
+    }
+
+    /** Read a shape table from <var>in</var> and close it; null if it is unusable. */
+    private static ShapeTable readTable(InputStream in, String locale) throws IOException {
+        try {
+            return ShapeTable.read(in);
+        } catch (IOException e) {
+            // Most likely built for another descriptor version.
+            Log.w(TAG, "Ignoring shape table for " + locale, e);
+            return null;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static int getWordListResId(String locale) {
+        if ("en_GB".equals(locale)) {
+            return R.raw.words_en_gb;
+        }
+        return R.raw.words_en_us;
+    }
+
+    String getLocale() {
+        return mLocale;
+    }
+
+    PrefixModel getPrefixModel() {
+        return mPrefixModel;
+    }
+
+    String getWordSeparators() {
+        return mWordSeparators;
+    }
+
+    KeyGeometry getKeyGeometry() {
+        return mKeyGeometry;
+    }
+
+    int getWordCount() {
+        return mWords.length;
+    }
+
+    String getWord(int index) {
+        return mWords[index];
+    }
+
+    /** The word at <var>index</var>, with its first letter upper cased if asked. */
+    String getWord(int index, boolean capitalized) {
+        final String word = mWords[index];
+        return capitalized ? Character.toUpperCase(word.charAt(0)) + word.substring(1) : word;
+    }
+
+    int getFrequency(int index) {
+        return mFrequencies[index];
+    }
+
+    /**
+     * Whether <var>word</var>, ignoring case, is in the lexicon, with a small
+     * chance of a false positive.  Allocates nothing.
+     */
+    boolean isKnownWord(CharSequence word) {
+        return mWordFilter.mightContain(word);
+    }
+
+    /**
+     * Whether <var>word</var>, ignoring case, is in the lexicon.  Unknown
+     * words are rejected in constant time; known ones, and the filter's rare
+     * false positives, are confirmed by a binary search.
+     */
+    boolean contains(CharSequence word) {
+        if (!mWordFilter.mightContain(word)) {
+            return false;
+        }
+        final int i = lowerBound(word);
+        return i < mWords.length && compareIgnoreCase(mWords[i], word) == 0;
+    }
+
+    WordFilter getWordFilter() {
+        return mWordFilter;
+    }
+
+    ShapeIndex getShapeIndex() {
+        return mShapeIndex;
+    }
+
+    /** Length of the key path of the word at <var>index</var>. */
+    float getPathLength(int index) {
+        return mPathLengths[index];
+    }
+
+    /**
+     * Bound <var>which</var> (0: min x, 1: min y, 2: max x, 3: max y) of
+     * the key path of the word at <var>index</var>.
+     */
+    float getPathEnvelope(int index, int which) {
+        return mPathEnvelopes[index * 4 + which];
+    }
+
+    /**
+     * Append to <var>out</var> up to <var>max</var> words that start with
+     * <var>prefix</var> (ignoring case) and are longer than it, most frequent
+     * first.  Words are capitalized if the prefix is.
+     *
+     * <p>Short prefixes of a large lexicon match many words, so the scan
+     * gives up once <code>System.nanoTime()</code> passes
+     * <var>deadlineNanos</var>, appending the best words seen until then.
+     * Returns false if it did.
+     */
+    boolean getCompletions(CharSequence prefix, int max, long deadlineNanos, List<String> out) {
+        final int prefixLength = prefix.length();
+        if (prefixLength == 0 || max <= 0) return true;
+
+        final int[] best = new int[max];
+        int bestCount = 0;
+        boolean complete = true;
+        int scanned = 0;
+        for (int i = lowerBound(prefix); i < mWords.length && startsWith(mWords[i], prefix); i++) {
+            if ((++scanned & (DEADLINE_CHECK_INTERVAL - 1)) == 0
+                    && System.nanoTime() >= deadlineNanos) {
+                complete = false;
+                break;
+            }
+            if (mWords[i].length() == prefixLength) continue;
+            // Insertion into the short, frequency ordered best list.
+            int pos = bestCount < max ? bestCount++ : max;
+            while (pos > 0 && mFrequencies[best[pos - 1]] < mFrequencies[i]) {
+                if (pos < max) best[pos] = best[pos - 1];
+                pos--;
+            }
+            if (pos < max) best[pos] = i;
+        }
+
+        final boolean capitalize = Character.isUpperCase(prefix.charAt(0));
+        for (int i = 0; i < bestCount; i++) {
+            out.add(getWord(best[i], capitalize));
+        }
+        return complete;
+    }
+
+    /** Index of the first word not less than <var>prefix</var>, ignoring case. */
+    private int lowerBound(CharSequence prefix) {
+        int low = 0;
+        int high = mWords.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (compareIgnoreCase(mWords[mid], prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int compareIgnoreCase(String word, CharSequence s) {
+        final int length = Math.min(word.length(), s.length());
+        for (int i = 0; i < length; i++) {
+            final int diff = word.charAt(i) - Character.toLowerCase(s.charAt(i));
+            if (diff != 0) return diff;
+        }
+        return word.length() - s.length();
+    }
+
+    private static boolean startsWith(String word, CharSequence prefix) {
+        if (word.length() < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (word.charAt(i) != Character.toLowerCase(prefix.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    /** Rough heap footprint of this pack, in bytes. */
+    int estimateSizeBytes() {
+        int size = 64 + mWords.length * (4 + 4 + 4 + 16) + mShapeIndex.estimateSizeBytes()
+                + mWordFilter.getByteSize() + mPrefixModel.getByteSize();
+        for (String word : mWords) {
+            size += 40 + 2 * word.length();
+        }
+        return size;
+    }
+}
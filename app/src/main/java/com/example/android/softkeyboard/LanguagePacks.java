@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.softkeyboard;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.res.Resources;
+import android.util.Log;
+import android.util.LruCache;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process wide cache of loaded {@link LanguagePack}s.  Packs are loaded on
+ * the {@link BackgroundExecutor} and kept in an LRU bounded by their
+ * estimated heap size, so switching back to a recently used language is
+ * instant while enabling more languages does not grow the heap.  The pack
+ * the keyboard uses is also pinned outside the LRU, see {@link #setInUse},
+ * so that a pack larger than the whole budget is not loaded again on every
+ * request for it.
+ */
+final class LanguagePacks {
+    private static final String TAG = "LanguagePacks";
+
+    /** Share of the per-process memory class the packs may use. */
+    private static final int MEMORY_CLASS_DIVISOR = 32;
+
+    interface Callback {
+        /** Called on the main thread; <var>pack</var> is null if loading failed. */
+        void onLanguagePackLoaded(String locale, LanguagePack pack);
+    }
+
+    private static LanguagePacks sInstance;
+
+    private final Resources mResources;
+    private final WarmStartSnapshot mSnapshot;
+    private final LruCache<String, LanguagePack> mCache;
+    /** The pack the keyboard uses, or null; kept whatever the LRU evicts. */
+    private volatile LanguagePack mInUse;
+    private final Object mLoadLock = new Object();
+    /** Callbacks waiting for a load in progress, by locale.  Main thread only. */
+    private final Map<String, List<Callback>> mPending = new HashMap<String, List<Callback>>();
+
+    static synchronized LanguagePacks getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new LanguagePacks(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private LanguagePacks(Context context) {
+        mResources = context.getResources();
+        mSnapshot = WarmStartSnapshot.getInstance(context);
+        final ActivityManager am =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        final int maxBytes = am.getMemoryClass() * 1024 * 1024 / MEMORY_CLASS_DIVISOR;
+        mCache = new LruCache<String, LanguagePack>(maxBytes) {
+            @Override
+            protected int sizeOf(String locale, LanguagePack pack) {
+                return pack.estimateSizeBytes();
+            }
+        };
+    }
+
+    /** The pack for <var>locale</var> if it is loaded, otherwise null. */
+    LanguagePack get(String locale) {
+        final LanguagePack inUse = mInUse;
+        if (inUse != null && inUse.getLocale().equals(locale)) {
+            return inUse;
+        }
+        return mCache.get(locale);
+    }
+
+    /**
+     * Pin <var>pack</var>, which the keyboard now uses, in memory until
+     * another is, or null to unpin.
+     */
+    void setInUse(LanguagePack pack) {
+        mInUse = pack;
+    }
+
+    /**
+     * Return the pack for <var>locale</var>, loading it on the calling thread
+     * if needed.  Must not be called on the main thread.  Loads are done one
+     * at a time, so the keyboard and the spell checker asking for the same
+     * pack at once load one copy of it.
+     */
+    LanguagePack getBlocking(String locale) {
+        LanguagePack pack = get(locale);
+        if (pack != null) {
+            return pack;
+        }
+        synchronized (mLoadLock) {
+            // Another thread may have loaded it while we waited.
+            pack = get(locale);
+            if (pack == null) {
+                try {
+                    pack = LanguagePack.load(mResources, mSnapshot, locale);
+                    if (pack.estimateSizeBytes() > mCache.maxSize()) {
+                        Log.w(TAG, "Language pack " + locale + " of about "
+                                + pack.estimateSizeBytes() / 1024 + " KB exceeds the cache's "
+                                + mCache.maxSize() / 1024 + " KB; only kept while in use");
+                    }
+                    mCache.put(locale, pack);
+                } catch (IOException e) {
+                    Log.e(TAG, "Unable to load language pack " + locale, e);
+                } catch (JSONException e) {
+                    Log.e(TAG, "Unable to load language pack " + locale, e);
+                }
+            }
+        }
+        return pack;
+    }
+
+    /**
+     * Make the pack for <var>locale</var> available and report it to
+     * <var>callback</var> on the main thread.  Concurrent requests for the
+     * same locale share one load.  Must be called on the main thread.
+     */
+    void load(final String locale, Callback callback) {
+        List<Callback> callbacks = mPending.get(locale);
+        if (callbacks != null) {
+            callbacks.add(callback);
+            return;
+        }
+        callbacks = new ArrayList<Callback>();
+        callbacks.add(callback);
+        mPending.put(locale, callbacks);
+        BackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final LanguagePack pack = getBlocking(locale);
+                BackgroundExecutor.postToMain(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (Callback c : mPending.remove(locale)) {
+                            c.onLanguagePackLoaded(locale, pack);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Evict every pack but the one for <var>keepLocale</var>, which may be
+     * null to evict them all, and unpin the pack in use unless it is that
+     * one.  Returns the bytes released.
+     */
+    int trimMemory(String keepLocale) {
+        int released = 0;
+        final LanguagePack inUse = mInUse;
+        if (inUse != null && !inUse.getLocale().equals(keepLocale)) {
+            mInUse = null;
+            if (mCache.snapshot().get(inUse.getLocale()) != inUse) {
+                released += inUse.estimateSizeBytes();
+            }
+        }
+        final int before = mCache.size();
+        for (String locale : mCache.snapshot().keySet()) {
+            if (!locale.equals(keepLocale)) {
+                mCache.remove(locale);
+            }
+        }
+        return released + before - mCache.size();
+    }
+
+    void dump(PrintWriter pw) {
+        pw.println("Language packs:");
+        final LanguagePack inUse = mInUse;
+        pw.println("  inUse=" + (inUse != null ? inUse.getLocale() + " sizeBytes="
+                + inUse.estimateSizeBytes() : null));
+        pw.println("  loaded=" + mCache.snapshot().keySet()
+                + " sizeBytes=" + mCache.size() + "/" + mCache.maxSize()
+                + " hits=" + mCache.hitCount() + " misses=" + mCache.missCount()
+                + " evictions=" + mCache.evictionCount());
+    }
+}
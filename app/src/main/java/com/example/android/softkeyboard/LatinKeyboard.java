@@ -21,17 +21,270 @@ import android.content.res.Resources;
 import android.content.res.XmlResourceParser;
 import android.graphics.drawable.Drawable;
 import android.inputmethodservice.Keyboard;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.TypedValue;
 import android.view.inputmethod.EditorInfo;
 
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 public class LatinKeyboard extends Keyboard {
+    private static final String TAG = "LatinKeyboard";
+
+    /** Returned by {@link #resolveKey} when keys should test their own bounds. */
+    static final int USE_KEY_BOUNDS = -2;
 
+    /** How much a certain next letter enlarges its key's target: by this fraction. */
+    private static final float MAX_PRIOR_GROWTH = 0.5f;
+
+    // Set by createKeyFromXml(), which runs in the super constructor: these
+    // must not have initializers, which would run after it and reset them.
     private Key mEnterKey;
     private Key mSpaceKey;
-    
+    private int mEnterKeyIndex;
+    private int mSpaceKeyIndex;
+
+    /** The editor action last applied to the enter key, or -1 if none yet. */
+    private int mEnterAction = -1;
+    private boolean mEnterKeyChanged;
+    private boolean mSpaceKeyChanged;
+
+    private TouchModel mTouchModel;
+    // The last touch resolved, which is also the one that typed the last key.
+    private int mResolvedX = -1;
+    private int mResolvedY = -1;
+    private int mResolvedKey = USE_KEY_BOUNDS;
+    /** Whether the last touch must be resolved again as the key priors changed. */
+    private boolean mResolvedStale;
+    /** Probability of each key being typed next, see {@link #setNextCharacters}. */
+    private float[] mKeyPriors;
+    /** Index of the key typing each ASCII character, or -1. */
+    private int[] mAsciiKeys;
+    /** A typed key waiting to be confirmed, by not being deleted, to be learned. */
+    private int mPendingKey = -1;
+    private int mPendingX;
+    private int mPendingY;
+
+    // Set when built from a compiled layout, whose sizes and shift key the
+    // framework does not know about; -1 otherwise.
+    private int mLoadedHeight = -1;
+    private int mLoadedMinWidth = -1;
+    private int mShiftKeyIndex = -1;
+
+    /** Compiled layouts read so far, by resource id.  Immutable once read. */
+    private static final SparseArray<KeyboardLayout> sLayouts = new SparseArray<KeyboardLayout>();
+    /** Resource ids looked up by name for compiled layouts, by "type/name". */
+    private static final Map<String, Integer> sResourceIds = new HashMap<String, Integer>();
+
     public LatinKeyboard(Context context, int xmlLayoutResId) {
         super(context, xmlLayoutResId);
     }
 
+    /**
+     * Build the keyboard from a compiled <var>layout</var>, placing the keys
+     * as <code>Keyboard</code> does when it parses the layout XML.  The
+     * framework has no way in other than XML, so the super class is given
+     * an empty template, which only sets the defaults the proximity
+     * detection is computed from.
+     */
+    private LatinKeyboard(Context context, KeyboardLayout layout) {
+        super(context, R.xml.keyboard_template);
+        final Resources res = context.getResources();
+        final DisplayMetrics dm = res.getDisplayMetrics();
+        final int displayWidth = dm.widthPixels;
+        final int displayHeight = dm.heightPixels;
+
+        final int defaultWidth = resolve(res, layout.keyWidth, displayWidth, displayWidth / 10);
+        final int defaultHeight = resolve(res, layout.keyHeight, displayHeight, 50);
+        final int defaultGap = resolve(res, layout.horizontalGap, displayWidth, 0);
+        final int defaultVerticalGap = resolve(res, layout.verticalGap, displayHeight, 0);
+        setKeyWidth(defaultWidth);
+        setKeyHeight(defaultHeight);
+        setHorizontalGap(defaultGap);
+        setVerticalGap(defaultVerticalGap);
+
+        final List<Key> keys = getKeys();
+        int y = 0;
+        int totalWidth = 0;
+        for (KeyboardLayout.Row compiledRow : layout.rows) {
+            if (compiledRow.mode != 0) {
+                // Built for mode 0, like new Keyboard(context, xmlLayoutResId).
+                continue;
+            }
+            final Row row = new Row(this);
+            row.defaultWidth = resolve(res, compiledRow.keyWidth, displayWidth, defaultWidth);
+            row.defaultHeight = resolve(res, compiledRow.keyHeight, displayHeight, defaultHeight);
+            row.defaultHorizontalGap = resolve(res, compiledRow.horizontalGap, displayWidth,
+                    defaultGap);
+            row.verticalGap = resolve(res, compiledRow.verticalGap, displayHeight,
+                    defaultVerticalGap);
+            row.rowEdgeFlags = compiledRow.rowEdgeFlags;
+
+            int x = 0;
+            for (KeyboardLayout.Key compiledKey : compiledRow.keys) {
+                final LatinKey key = new LatinKey(this, row);
+                key.width = resolve(res, compiledKey.width, displayWidth, row.defaultWidth);
+                key.height = resolve(res, compiledKey.height, displayHeight, row.defaultHeight);
+                key.gap = resolve(res, compiledKey.gap, displayWidth, row.defaultHorizontalGap);
+                key.x = x + key.gap;
+                key.y = y;
+                key.codes = compiledKey.codes;
+                key.edgeFlags = compiledKey.edgeFlags | row.rowEdgeFlags;
+                key.repeatable = (compiledKey.flags & KeyboardLayout.FLAG_REPEATABLE) != 0;
+                key.modifier = (compiledKey.flags & KeyboardLayout.FLAG_MODIFIER) != 0;
+                key.sticky = (compiledKey.flags & KeyboardLayout.FLAG_STICKY) != 0;
+                key.label = compiledKey.label;
+                key.text = compiledKey.outputText;
+                key.popupCharacters = compiledKey.popupCharacters;
+                if (compiledKey.popupKeyboard != null) {
+                    key.popupResId = getResourceId(res, "xml", compiledKey.popupKeyboard);
+                }
+                key.icon = getIcon(res, compiledKey.icon);
+                key.iconPreview = getIcon(res, compiledKey.iconPreview);
+
+                if (key.codes[0] == 10) {
+                    mEnterKey = key;
+                    mEnterKeyIndex = keys.size();
+                } else if (key.codes[0] == ' ') {
+                    mSpaceKey = key;
+                    mSpaceKeyIndex = keys.size();
+                } else if (key.codes[0] == KEYCODE_SHIFT) {
+                    if (mShiftKeyIndex < 0) {
+                        mShiftKeyIndex = keys.size();
+                    }
+                    getModifierKeys().add(key);
+                } else if (key.codes[0] == KEYCODE_ALT) {
+                    getModifierKeys().add(key);
+                }
+                keys.add(key);
+                x += key.gap + key.width;
+                totalWidth = Math.max(totalWidth, x);
+            }
+            y += row.verticalGap + row.defaultHeight;
+        }
+        mLoadedMinWidth = totalWidth;
+        mLoadedHeight = y - defaultVerticalGap;
+    }
+
+    /**
+     * Build the keyboard from the layout compiled at build time into raw
+     * resource <var>compiledResId</var>, see {@link KeyboardLayout}, or by
+     * parsing the layout XML <var>xmlResId</var> if that cannot be read.
+     * The time taken is added up in {@link ImeStats}.
+     */
+    static LatinKeyboard load(Context context, int compiledResId, int xmlResId) {
+        final long start = System.nanoTime();
+        final KeyboardLayout layout = getLayout(context.getResources(), compiledResId);
+        final LatinKeyboard keyboard = layout != null
+                ? new LatinKeyboard(context, layout) : new LatinKeyboard(context, xmlResId);
+        ImeStats.increment(ImeStats.KEYBOARD_BUILDS);
+        ImeStats.add(ImeStats.KEYBOARD_BUILD_NANOS, System.nanoTime() - start);
+        return keyboard;
+    }
+
+    /** The compiled layout in raw resource <var>resId</var>, or null if it is unreadable. */
+    static synchronized KeyboardLayout getLayout(Resources res, int resId) {
+        KeyboardLayout layout = sLayouts.get(resId);
+        if (layout == null) {
+            try {
+                layout = readLayout(res, resId);
+                sLayouts.put(resId, layout);
+            } catch (IOException e) {
+                Log.w(TAG, "Cannot read compiled layout, parsing its XML instead", e);
+            }
+        }
+        return layout;
+    }
+
+    /** Read the compiled layout in raw resource <var>resId</var>, bypassing the cache. */
+    static KeyboardLayout readLayout(Resources res, int resId) throws IOException {
+        final InputStream in = new BufferedInputStream(res.openRawResource(resId));
+        try {
+            return KeyboardLayout.read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Build a keyboard from the compiled layout in raw resource
+     * <var>resId</var>, read afresh and not counted in {@link ImeStats}:
+     * for benchmarks, which time it against parsing the layout's XML.
+     */
+    static LatinKeyboard buildUncached(Context context, int resId) throws IOException {
+        return new LatinKeyboard(context, readLayout(context.getResources(), resId));
+    }
+
+    /** A dimension in pixels, as Keyboard's getDimensionOrFraction() computes it. */
+    private static int resolve(Resources res, KeyboardLayout.Dimension dimension, int base,
+            int defaultValue) {
+        switch (dimension.kind) {
+            case KeyboardLayout.KIND_FRACTION:
+                return Math.round(dimension.value * base);
+            case KeyboardLayout.KIND_DIMENSION:
+                return (int) TypedValue.applyDimension(dimension.unit, dimension.value,
+                        res.getDisplayMetrics());
+            case KeyboardLayout.KIND_RESOURCE:
+                return res.getDimensionPixelOffset(
+                        getResourceId(res, "dimen", dimension.resource));
+            default:
+                return defaultValue;
+        }
+    }
+
+    private static Drawable getIcon(Resources res, String name) {
+        if (name == null) {
+            return null;
+        }
+        final Drawable icon = res.getDrawable(getResourceId(res, "drawable", name));
+        icon.setBounds(0, 0, icon.getIntrinsicWidth(), icon.getIntrinsicHeight());
+        return icon;
+    }
+
+    /** Resource ids by name, looked up once per process as that is slow. */
+    private static synchronized int getResourceId(Resources res, String type, String name) {
+        final String key = type + '/' + name;
+        Integer id = sResourceIds.get(key);
+        if (id == null) {
+            id = res.getIdentifier(name, type, res.getResourcePackageName(R.xml.keyboard_template));
+            if (id == 0) {
+                throw new Resources.NotFoundException("No " + key + " for a compiled layout");
+            }
+            sResourceIds.put(key, id);
+        }
+        return id;
+    }
+
+    @Override
+    public int getHeight() {
+        return mLoadedHeight >= 0 ? mLoadedHeight : super.getHeight();
+    }
+
+    @Override
+    public int getMinWidth() {
+        return mLoadedMinWidth >= 0 ? mLoadedMinWidth : super.getMinWidth();
+    }
+
+    @Override
+    public int getShiftKeyIndex() {
+        return mShiftKeyIndex >= 0 ? mShiftKeyIndex : super.getShiftKeyIndex();
+    }
+
+    @Override
+    public boolean setShifted(boolean shiftState) {
+        if (mShiftKeyIndex >= 0) {
+            getKeys().get(mShiftKeyIndex).on = shiftState;
+        }
+        return super.setShifted(shiftState);
+    }
+
     public LatinKeyboard(Context context, int layoutTemplateResId, 
             CharSequence characters, int columns, int horizontalPadding) {
         super(context, layoutTemplateResId, characters, columns, horizontalPadding);
@@ -40,69 +293,239 @@ public class LatinKeyboard extends Keyboard {
     @Override
     protected Key createKeyFromXml(Resources res, Row parent, int x, int y, 
             XmlResourceParser parser) {
-        Key key = new LatinKey(res, parent, x, y, parser);
+        Key key = new LatinKey(this, res, parent, x, y, parser);
+        // The key is appended to getKeys() right after we return it.
         if (key.codes[0] == 10) {
             mEnterKey = key;
+            mEnterKeyIndex = getKeys().size();
         } else if (key.codes[0] == ' ') {
             mSpaceKey = key;
+            mSpaceKeyIndex = getKeys().size();
         }
         return key;
     }
     
     /**
      * This looks at the ime options given by the current editor, to set the
-     * appropriate label on the keyboard's enter key (if it has one).
+     * appropriate label on the keyboard's enter key (if it has one).  Nothing
+     * is touched if the enter key already shows the right action; otherwise
+     * the key is marked so that only it gets redrawn, see
+     * {@link LatinKeyboardView#invalidateChangedKeys}.
      */
-    void setImeOptions(Resources res, int options) {
+    void setImeOptions(KeyIconCache icons, int options) {
         if (mEnterKey == null) {
             return;
         }
+
+        final int action = options&(EditorInfo.IME_MASK_ACTION|EditorInfo.IME_FLAG_NO_ENTER_ACTION);
+        if (action == mEnterAction) {
+            return;
+        }
+        mEnterAction = action;
+        mEnterKeyChanged = true;
         
-        switch (options&(EditorInfo.IME_MASK_ACTION|EditorInfo.IME_FLAG_NO_ENTER_ACTION)) {
+        switch (action) {
             case EditorInfo.IME_ACTION_GO:
                 mEnterKey.iconPreview = null;
                 mEnterKey.icon = null;
-                mEnterKey.label = res.getText(R.string.label_go_key);
+                mEnterKey.label = icons.getLabel(R.string.label_go_key);
                 break;
             case EditorInfo.IME_ACTION_NEXT:
                 mEnterKey.iconPreview = null;
                 mEnterKey.icon = null;
-                mEnterKey.label = res.getText(R.string.label_next_key);
+                mEnterKey.label = icons.getLabel(R.string.label_next_key);
                 break;
             case EditorInfo.IME_ACTION_SEARCH:
-                mEnterKey.icon = res.getDrawable(R.drawable.sym_keyboard_search);
+                mEnterKey.icon = icons.getIcon(R.drawable.sym_keyboard_search);
                 mEnterKey.label = null;
                 break;
             case EditorInfo.IME_ACTION_SEND:
                 mEnterKey.iconPreview = null;
                 mEnterKey.icon = null;
-                mEnterKey.label = res.getText(R.string.label_send_key);
+                mEnterKey.label = icons.getLabel(R.string.label_send_key);
                 break;
             default:
-                mEnterKey.icon = res.getDrawable(R.drawable.sym_keyboard_return);
+                mEnterKey.icon = icons.getIcon(R.drawable.sym_keyboard_return);
                 mEnterKey.label = null;
                 break;
         }
     }
 
     void setSpaceIcon(final Drawable icon) {
-        if (mSpaceKey != null) {
+        if (mSpaceKey != null && mSpaceKey.icon != icon) {
             mSpaceKey.icon = icon;
+            mSpaceKeyChanged = true;
+        }
+    }
+
+    /**
+     * Returns the index of a key whose face changed since the last call and
+     * clears its mark, or -1 once no changed keys are left.
+     */
+    int takeChangedKeyIndex() {
+        if (mEnterKeyChanged) {
+            mEnterKeyChanged = false;
+            return mEnterKeyIndex;
+        }
+        if (mSpaceKeyChanged) {
+            mSpaceKeyChanged = false;
+            return mSpaceKeyIndex;
+        }
+        return -1;
+    }
+
+    void clearChangedKeys() {
+        mEnterKeyChanged = false;
+        mSpaceKeyChanged = false;
+    }
+
+    /**
+     * Rough heap footprint of the keyboard, in bytes: its keys and the
+     * proximity grid the framework builds for them.
+     */
+    int estimateSizeBytes() {
+        final int keys = getKeys().size();
+        return 256 + keys * (160 + 4 * 12) + 50 * 4 * Math.min(keys, 12);
+    }
+
+    /**
+     * Aim hit testing at where the user touches each key, as learned by
+     * <var>model</var>, or at the static key bounds if null.  A model for a
+     * layout with another number of keys is ignored.
+     */
+    void setTouchModel(TouchModel model) {
+        mTouchModel = model != null && model.getKeyCount() == getKeys().size() ? model : null;
+        mResolvedX = -1;
+        mPendingKey = -1;
+    }
+
+    /**
+     * Enlarge the targets of the keys likely to be typed after the first
+     * <var>length</var> characters of <var>prefix</var>, as predicted by
+     * <var>model</var>, by up to half a key; with no model or prediction,
+     * every key keeps its target.  Nothing is redrawn: only the touches
+     * resolved from now on change.  Takes time in the number of keys and
+     * letters, and allocates nothing after the first call.
+     */
+    void setNextCharacters(PrefixModel model, CharSequence prefix, int length) {
+        if (mKeyPriors == null) {
+            final List<Key> keys = getKeys();
+            mKeyPriors = new float[keys.size()];
+            mAsciiKeys = new int[128];
+            Arrays.fill(mAsciiKeys, -1);
+            for (int i = keys.size() - 1; i >= 0; i--) {
+                final int code = keys.get(i).codes[0];
+                if (code > 0 && code < 128) {
+                    mAsciiKeys[Character.toLowerCase(code)] = i;
+                }
+            }
+        } else {
+            Arrays.fill(mKeyPriors, 0);
+        }
+        mResolvedStale = true;
+        final int state = model != null ? model.find(prefix, length) : -1;
+        if (state < 0) {
+            return;
+        }
+        for (int edge = model.getFirstEdge(state); edge < model.getEdgeEnd(state); edge++) {
+            final char c = model.getEdgeChar(edge);
+            if (c < 128 && mAsciiKeys[c] >= 0) {
+                mKeyPriors[mAsciiKeys[c]] = model.getProbability(edge);
+            }
+        }
+    }
+
+    /**
+     * The index of the key that a touch at (x, y) is meant for: the
+     * nearby key whose learned target it is closest to, see
+     * {@link TouchModel#score}, the targets of likely next letters being
+     * enlarged, see {@link #setNextCharacters}.  Returns
+     * {@link #USE_KEY_BOUNDS} if there is no model or the touch is outside
+     * every target.  The view asks every nearby key about the same point
+     * in turn, so the last answer is kept.
+     */
+    int resolveKey(int x, int y) {
+        if (x == mResolvedX && y == mResolvedY && !mResolvedStale) {
+            return mResolvedKey;
+        }
+        mResolvedX = x;
+        mResolvedY = y;
+        mResolvedStale = false;
+        mResolvedKey = USE_KEY_BOUNDS;
+        if (mTouchModel == null) {
+            return USE_KEY_BOUNDS;
+        }
+        final int[] nearest = getNearestKeys(x, y);
+        final List<Key> keys = getKeys();
+        float bestScore = 1;
+        for (int index : nearest) {
+            float score = mTouchModel.score(index, keys.get(index), x, y);
+            if (mKeyPriors != null) {
+                score /= 1 + MAX_PRIOR_GROWTH * mKeyPriors[index];
+            }
+            if (score <= bestScore) {
+                bestScore = score;
+                mResolvedKey = index;
+            }
+        }
+        return mResolvedKey;
+    }
+
+    /**
+     * Tell the keyboard that <var>primaryCode</var> was typed with it.  The
+     * touch that typed the previous key is learned unless this one deletes
+     * it; this one waits for the next.
+     */
+    void onKeyTyped(int primaryCode) {
+        if (mTouchModel == null) {
+            return;
+        }
+        final List<Key> keys = getKeys();
+        if (mPendingKey >= 0 && primaryCode != KEYCODE_DELETE) {
+            mTouchModel.add(mPendingKey, keys.get(mPendingKey), mPendingX, mPendingY);
+        }
+        mPendingKey = -1;
+        if (primaryCode == KEYCODE_DELETE || mResolvedX < 0) {
+            return;
+        }
+        // The key sent is one of those near the last touch resolved.
+        for (int index : getNearestKeys(mResolvedX, mResolvedY)) {
+            if (keys.get(index).codes[0] == primaryCode) {
+                mPendingKey = index;
+                mPendingX = mResolvedX;
+                mPendingY = mResolvedY;
+                return;
+            }
         }
     }
 
     static class LatinKey extends Keyboard.Key {
+
+        private final LatinKeyboard mKeyboard;
         
-        public LatinKey(Resources res, Keyboard.Row parent, int x, int y, XmlResourceParser parser) {
+        public LatinKey(LatinKeyboard keyboard, Resources res, Keyboard.Row parent,
+                int x, int y, XmlResourceParser parser) {
             super(res, parent, x, y, parser);
+            mKeyboard = keyboard;
+        }
+
+        /** A key with the row's defaults, for the caller to fill in. */
+        LatinKey(LatinKeyboard keyboard, Keyboard.Row parent) {
+            super(parent);
+            mKeyboard = keyboard;
         }
         
         /**
-         * Overriding this method so that we can reduce the target area for the key that
-         * closes the keyboard. 
+         * Overriding this method so that we can aim at where the user actually
+         * touches the key, see {@link LatinKeyboard#resolveKey}, and otherwise
+         * reduce the target area for the key that closes the keyboard.
          */
         @Override
         public boolean isInside(int x, int y) {
+            final int resolved = mKeyboard.resolveKey(x, y);
+            if (resolved != USE_KEY_BOUNDS) {
+                return mKeyboard.getKeys().get(resolved) == this;
+            }
             return super.isInside(x, codes[0] == KEYCODE_CANCEL ? y - 10 : y);
         }
     }
@@ -17,15 +17,32 @@
 package com.example.android.softkeyboard;
 
 import android.content.Context;
+import android.graphics.Canvas;
 import android.inputmethodservice.Keyboard;
 import android.inputmethodservice.Keyboard.Key;
 import android.inputmethodservice.KeyboardView;
+import android.os.SystemClock;
 import android.util.AttributeSet;
+import android.view.MotionEvent;
 import android.view.inputmethod.InputMethodSubtype;
 
 public class LatinKeyboardView extends KeyboardView {
 
     static final int KEYCODE_OPTIONS = -100;
+    /** The symbols keyboards' key that starts searching symbols by name. */
+    static final int KEYCODE_SYMBOL_SEARCH = -101;
+
+    /**
+     * Told when a key that may have been shown as typed on touch down will
+     * not be typed after all, see {@link #setSpeculativePress}.
+     */
+    interface SpeculativePressListener {
+        void onSpeculativePressCancelled();
+    }
+
+    private Runnable mOnFirstDrawListener;
+    private SpeculativePressListener mSpeculativePressListener;
+    private KeyIconCache mKeyIcons;
 
     public LatinKeyboardView(Context context, AttributeSet attrs) {
         super(context, attrs);
@@ -37,17 +54,117 @@ public class LatinKeyboardView extends KeyboardView {
 
     @Override
     protected boolean onLongPress(Key key) {
+        final boolean handled;
         if (key.codes[0] == Keyboard.KEYCODE_CANCEL) {
             getOnKeyboardActionListener().onKey(KEYCODE_OPTIONS, null);
-            return true;
+            handled = true;
         } else {
-            return super.onLongPress(key);
+            handled = super.onLongPress(key);
+        }
+        if (handled) {
+            // The key pressed will not be typed; a popup key may be instead.
+            cancelSpeculativePress();
+        }
+        return handled;
+    }
+
+    /**
+     * Turn speculative presses on, reporting to <var>listener</var>, or off
+     * with null.  While they are on, the action listener may show a key as
+     * typed as soon as {@link OnKeyboardActionListener#onPress} reports it
+     * touched, and take it to be typed when onKey follows for the same
+     * key.  The view tells the listener when no key follows: the touch was
+     * cancelled, became a swipe, or became a long press that was handled.
+     */
+    void setSpeculativePress(SpeculativePressListener listener) {
+        if (listener == null) {
+            cancelSpeculativePress();
+        }
+        mSpeculativePressListener = listener;
+    }
+
+    boolean isSpeculativePress() {
+        return mSpeculativePressListener != null;
+    }
+
+    private void cancelSpeculativePress() {
+        if (mSpeculativePressListener != null) {
+            mSpeculativePressListener.onSpeculativePressCancelled();
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent me) {
+        final boolean handled = super.onTouchEvent(me);
+        final int action = me.getActionMasked();
+        if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+            // Any key this touch typed has been sent by now.
+            cancelSpeculativePress();
+        }
+        return handled;
+    }
+
+    /**
+     * Register a callback to run once, after the keyboard is next drawn.
+     */
+    void setOnFirstDrawListener(Runnable listener) {
+        mOnFirstDrawListener = listener;
+    }
+
+    @Override
+    public void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (mOnFirstDrawListener != null) {
+            final Runnable listener = mOnFirstDrawListener;
+            mOnFirstDrawListener = null;
+            listener.run();
         }
     }
 
+    void setKeyIconCache(KeyIconCache icons) {
+        mKeyIcons = icons;
+    }
+
+    @Override
+    public void setKeyboard(Keyboard keyboard) {
+        super.setKeyboard(keyboard);
+        // Everything is redrawn anyway, so forget about individual keys.
+        ((LatinKeyboard) keyboard).clearChangedKeys();
+    }
+
+    /**
+     * Redraw only the keys of the current keyboard whose face has changed,
+     * keeping the rest of the rendered keyboard.
+     */
+    void invalidateChangedKeys() {
+        final LatinKeyboard keyboard = (LatinKeyboard)getKeyboard();
+        if (keyboard == null) {
+            return;
+        }
+        int keyIndex;
+        while ((keyIndex = keyboard.takeChangedKeyIndex()) >= 0) {
+            invalidateKey(keyIndex);
+        }
+    }
+
+    /**
+     * Dismiss any popup keyboard and key preview, and drop the pending key
+     * repeat and long press, without throwing away the rendered keys, which
+     * {@link #closing} does.  KeyboardView does all that for a cancelled
+     * touch; it is given one directly, bypassing {@link #onTouchEvent}, so
+     * that no speculative press is taken back from the next editor.
+     */
+    void dismissPopups() {
+        final long now = SystemClock.uptimeMillis();
+        final MotionEvent cancel = MotionEvent.obtain(now, now, MotionEvent.ACTION_CANCEL,
+                0, 0, 0);
+        super.onTouchEvent(cancel);
+        cancel.recycle();
+    }
+
     void setSubtypeOnSpaceKey(final InputMethodSubtype subtype) {
         final LatinKeyboard keyboard = (LatinKeyboard)getKeyboard();
-        keyboard.setSpaceIcon(getResources().getDrawable(subtype.getIconResId()));
-        invalidateAllKeys();
+        keyboard.setSpaceIcon(mKeyIcons.getIcon(subtype.getIconResId()));
+        invalidateChangedKeys();
     }
 }
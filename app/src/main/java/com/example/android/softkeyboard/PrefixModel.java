@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.example.android.softkeyboard;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Which letter is likely to be typed next after a prefix of a word: a trie
+ * of the prefixes of a word list, up to {@link #MAX_DEPTH} letters, whose
+ * edges carry the probability that the prefix goes on with their letter.
+ * The probabilities are weighted by word frequency, and the rest of each
+ * prefix's mass is the words ending there.
+ *
+ * <p>Built by the tools' "prefixes" command into a raw resource, or from
+ * the word list when the resource is missing; see {@link LanguagePack}.
+ * Lookups walk a flat array trie, with each state's edges sorted by
+ * letter, and allocate nothing.  Immutable, so it can be shared between
+ * threads.
+ */
+final class PrefixModel {
+
+    private static final int MAGIC = 0x50524658; // "PRFX"
+    private static final int VERSION = 1;
+
+    /** Longest prefix modelled; the next letter of a longer one is not predicted. */
+    static final int MAX_DEPTH = 8;
+
+    private static final int ROOT = 0;
+
+    // The transitions out of state s are
+    // mEdgeChars/mEdgeTargets/mEdgeProbabilities[mFirstEdge[s], mFirstEdge[s + 1]).
+    private final int[] mFirstEdge;
+    private final char[] mEdgeChars;
+    private final int[] mEdgeTargets;
+    /** Probability of each edge's letter after its state's prefix, times 255. */
+    private final byte[] mEdgeProbabilities;
+
+    private PrefixModel(int[] firstEdge, char[] edgeChars, int[] edgeTargets,
+            byte[] edgeProbabilities) {
+        mFirstEdge = firstEdge;
+        mEdgeChars = edgeChars;
+        mEdgeTargets = edgeTargets;
+        mEdgeProbabilities = edgeProbabilities;
+    }
+
+    /** Model the prefixes of lower case <var>words</var>, weighted by <var>frequencies</var>. */
+    static PrefixModel build(String[] words, int[] frequencies) {
+        // A trie with one list of children per state, and the weight of
+        // the words through each state.
+        final List<StringBuilder> childChars = new ArrayList<StringBuilder>();
+        final List<List<Integer>> childTargets = new ArrayList<List<Integer>>();
+        final List<Long> weights = new ArrayList<Long>();
+        childChars.add(new StringBuilder());
+        childTargets.add(new ArrayList<Integer>());
+        weights.add(0L);
+        for (int w = 0; w < words.length; w++) {
+            final String word = words[w].toLowerCase(Locale.ROOT);
+            final int weight = frequencies[w];
+            int state = ROOT;
+            weights.set(state, weights.get(state) + weight);
+            for (int i = 0; i < Math.min(word.length(), MAX_DEPTH); i++) {
+                final char c = word.charAt(i);
+                final int child = childChars.get(state).indexOf(String.valueOf(c));
+                if (child >= 0) {
+                    state = childTargets.get(state).get(child);
+                } else {
+                    final int next = childChars.size();
+                    childChars.add(new StringBuilder());
+                    childTargets.add(new ArrayList<Integer>());
+                    weights.add(0L);
+                    childChars.get(state).append(c);
+                    childTargets.get(state).add(next);
+                    state = next;
+                }
+                weights.set(state, weights.get(state) + weight);
+            }
+        }
+
+        // Flatten it breadth first, sorting each state's transitions.
+        final int states = childChars.size();
+        final int[] order = new int[states];
+        final int[] numbers = new int[states];
+        int tail = 1;
+        for (int head = 0; head < tail; head++) {
+            final char[] chars = childChars.get(order[head]).toString().toCharArray();
+            Arrays.sort(chars);
+            for (char c : chars) {
+                final int child = childTargets.get(order[head]).get(
+                        childChars.get(order[head]).indexOf(String.valueOf(c)));
+                numbers[child] = tail;
+                order[tail++] = child;
+            }
+        }
+        final int[] firstEdge = new int[states + 1];
+        final char[] edgeChars = new char[states - 1];
+        final int[] edgeTargets = new int[states - 1];
+        final byte[] edgeProbabilities = new byte[states - 1];
+        int edge = 0;
+        for (int s = 0; s < states; s++) {
+            final int state = order[s];
+            firstEdge[s] = edge;
+            final char[] chars = childChars.get(state).toString().toCharArray();
+            Arrays.sort(chars);
+            final long total = weights.get(state);
+            for (char c : chars) {
+                final int child = childTargets.get(state).get(
+                        childChars.get(state).indexOf(String.valueOf(c)));
+                edgeChars[edge] = c;
+                edgeTargets[edge] = numbers[child];
+                edgeProbabilities[edge] = (byte) Math.round(255.0 * weights.get(child) / total);
+                edge++;
+            }
+        }
+        firstEdge[states] = edge;
+        return new PrefixModel(firstEdge, edgeChars, edgeTargets, edgeProbabilities);
+    }
+
+    /**
+     * The state of the first <var>length</var> characters of
+     * <var>text</var>, case folded, or -1 if no word starts with them or
+     * they are longer than {@link #MAX_DEPTH}.
+     */
+    int find(CharSequence text, int length) {
+        if (length > MAX_DEPTH) {
+            return -1;
+        }
+        int state = ROOT;
+        for (int i = 0; i < length && state >= 0; i++) {
+            state = next(state, Character.toLowerCase(text.charAt(i)));
+        }
+        return state;
+    }
+
+    private int next(int state, char c) {
+        // Binary search of the state's sorted transitions.
+        int low = mFirstEdge[state];
+        int high = mFirstEdge[state + 1] - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final char midChar = mEdgeChars[mid];
+            if (midChar < c) {
+                low = mid + 1;
+            } else if (midChar > c) {
+                high = mid - 1;
+            } else {
+                return mEdgeTargets[mid];
+            }
+        }
+        return -1;
+    }
+
+    /** The first edge out of <var>state</var>; the last is before {@link #getEdgeEnd}. */
+    int getFirstEdge(int state) {
+        return mFirstEdge[state];
+    }
+
+    int getEdgeEnd(int state) {
+        return mFirstEdge[state + 1];
+    }
+
+    char getEdgeChar(int edge) {
+        return mEdgeChars[edge];
+    }
+
+    /** Probability that the edge's letter comes next, 0 to 1. */
+    float getProbability(int edge) {
+        return (mEdgeProbabilities[edge] & 0xff) / 255f;
+    }
+
+    int getStateCount() {
+        return mFirstEdge.length - 1;
+    }
+
+    int getByteSize() {
+        return mFirstEdge.length * 4 + mEdgeChars.length * (2 + 4 + 1);
+    }
+
+    /**
+     * Write the model: magic, version and state count ints, then per state
+     * its edge count as a short, and per edge its letter as a char, its
+     * target state as an int and its probability as a byte, big endian.
+     */
+    void write(OutputStream stream) throws IOException {
+        final DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(getStateCount());
+        for (int s = 0; s < getStateCount(); s++) {
+            out.writeShort(mFirstEdge[s + 1] - mFirstEdge[s]);
+            for (int e = mFirstEdge[s]; e < mFirstEdge[s + 1]; e++) {
+                out.writeChar(mEdgeChars[e]);
+                out.writeInt(mEdgeTargets[e]);
+                out.writeByte(mEdgeProbabilities[e]);
+            }
+        }
+        out.flush();
+    }
+
+    /** Read a model written by {@link #write}. */
+    static PrefixModel read(InputStream stream) throws IOException {
+        final DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a prefix model of version " + VERSION);
+        }
+        final int states = in.readInt();
+        if (states < 1) {
+            throw new IOException("Bad state count " + states);
+        }
+        final int[] firstEdge = new int[states + 1];
+        final char[] edgeChars = new char[states - 1];
+        final int[] edgeTargets = new int[states - 1];
+        final byte[] edgeProbabilities = new byte[states - 1];
+        int edge = 0;
+        for (int s = 0; s < states; s++) {
+            firstEdge[s] = edge;
+            final int edges = in.readUnsignedShort();
+            for (int e = 0; e < edges; e++) {
+                if (edge == states - 1) {
+                    throw new IOException("More edges than states");
+                }
+                edgeChars[edge] = in.readChar();
+                edgeTargets[edge] = in.readInt();
+                edgeProbabilities[edge] = in.readByte();
+                if (edgeTargets[edge] <= s || edgeTargets[edge] >= states) {
+                    throw new IOException("Bad edge target " + edgeTargets[edge]);
+                }
+                edge++;
+            }
+        }
+        firstEdge[states] = edge;
+        return new PrefixModel(firstEdge, edgeChars, edgeTargets, edgeProbabilities);
+    }
+}
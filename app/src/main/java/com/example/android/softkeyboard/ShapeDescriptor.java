@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.softkeyboard;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Computes a fixed length descriptor of the path a word traces over the key
+ * centres of a {@link KeyGeometry}.  Every feature is invariant to rotating
+ * and scaling the path, so words are compared by shape alone:
+ * <ul>
+ * <li>the turning function: cumulative turning angle sampled at even steps
+ *     of normalized arc length,</li>
+ * <li>the radial profile: mean distance to the centroid over each part of
+ *     the path, relative to the RMS radius,</li>
+ * <li>second moments: the square root of the ratio of the eigenvalues of the
+ *     point covariance,</li>
+ * <li>straightness: distance between the ends over path length,</li>
+ * <li>convex hull compactness (4&pi;A/P&sup2;) and hull perimeter over twice
+ *     the path length.</li>
+ * </ul>
+ * Squared Euclidean distance between descriptors is the shape distance; the
+ * feature weights are folded into the values.
+ *
+ * <p>An instance keeps reusable buffers and is not thread safe; use one per
+ * thread.
+ */
+final class ShapeDescriptor {
+
+    static final int TURNING_SAMPLES = 4;
+    static final int RADIAL_SAMPLES = 4;
+    /** Number of floats in a descriptor. */
+    static final int SIZE = TURNING_SAMPLES + RADIAL_SAMPLES + 4;
+
+    /** Points the path is resampled to before measuring. */
+    private static final int RESAMPLE_POINTS = 32;
+
+    private static final float TURNING_WEIGHT = 1.0f;
+    private static final float RADIAL_WEIGHT = 1.0f;
+    private static final float SCALAR_WEIGHT = 2.0f;
+
+    private final KeyGeometry mGeometry;
+    private final GeometryFactory mGeometryFactory;
+
+    private double[] mPathX = new double[16];
+    private double[] mPathY = new double[16];
+    private int mPathPoints;
+    private double mPathLength;
+    private Coordinate[] mCoordinates = new Coordinate[16];
+    private final double[] mSampleX = new double[RESAMPLE_POINTS];
+    private final double[] mSampleY = new double[RESAMPLE_POINTS];
+
+    ShapeDescriptor(KeyGeometry geometry, GeometryFactory geometryFactory) {
+        mGeometry = geometry;
+        mGeometryFactory = geometryFactory;
+    }
+
+    KeyGeometry getKeyGeometry() {
+        return mGeometry;
+    }
+
+    /**
+     * Write the descriptor of <var>word</var> to
+     * <code>out[offset .. offset + SIZE)</code>.  Returns false, leaving
+     * <var>out</var> undefined, if the word has a letter without a key or
+     * its path does not span at least two distinct keys.
+     */
+    boolean compute(CharSequence word, float[] out, int offset) {
+        final int points = buildPath(word);
+        mPathPoints = Math.max(points, 0);
+        mPathLength = 0;
+        if (points < 2) {
+            return false;
+        }
+        final double length = resample(points);
+        mPathLength = length;
+
+        // Centroid and second moments of the resampled path.
+        double cx = 0, cy = 0;
+        for (int i = 0; i < RESAMPLE_POINTS; i++) {
+            cx += mSampleX[i];
+            cy += mSampleY[i];
+        }
+        cx /= RESAMPLE_POINTS;
+        cy /= RESAMPLE_POINTS;
+        double sxx = 0, syy = 0, sxy = 0;
+        for (int i = 0; i < RESAMPLE_POINTS; i++) {
+            final double dx = mSampleX[i] - cx;
+            final double dy = mSampleY[i] - cy;
+            sxx += dx * dx;
+            syy += dy * dy;
+            sxy += dx * dy;
+        }
+        final double rms = Math.sqrt((sxx + syy) / RESAMPLE_POINTS);
+
+        int o = offset;
+
+        // Turning function.
+        final int segments = RESAMPLE_POINTS - 1;
+        double heading = Math.atan2(mSampleY[1] - mSampleY[0], mSampleX[1] - mSampleX[0]);
+        double turning = 0;
+        int nextSample = 1;
+        for (int i = 1; i < segments; i++) {
+            final double next = Math.atan2(mSampleY[i + 1] - mSampleY[i],
+                    mSampleX[i + 1] - mSampleX[i]);
+            double delta = next - heading;
+            while (delta > Math.PI) delta -= 2 * Math.PI;
+            while (delta <= -Math.PI) delta += 2 * Math.PI;
+            turning += delta;
+            heading = next;
+            while (nextSample <= TURNING_SAMPLES
+                    && i + 1 >= nextSample * segments / TURNING_SAMPLES) {
+                out[o++] = (float) (TURNING_WEIGHT * turning / (2 * Math.PI));
+                nextSample++;
+            }
+        }
+        while (nextSample++ <= TURNING_SAMPLES) {
+            out[o++] = (float) (TURNING_WEIGHT * turning / (2 * Math.PI));
+        }
+
+        // Radial profile.
+        for (int s = 0; s < RADIAL_SAMPLES; s++) {
+            final int from = s * RESAMPLE_POINTS / RADIAL_SAMPLES;
+            final int to = (s + 1) * RESAMPLE_POINTS / RADIAL_SAMPLES;
+            double sum = 0;
+            for (int i = from; i < to; i++) {
+                sum += Math.hypot(mSampleX[i] - cx, mSampleY[i] - cy);
+            }
+            out[o++] = (float) (RADIAL_WEIGHT * sum / ((to - from) * rms));
+        }
+
+        // Eigenvalue ratio of the covariance.
+        final double trace = sxx + syy;
+        final double det = sxx * syy - sxy * sxy;
+        final double disc = Math.sqrt(Math.max(0, trace * trace / 4 - det));
+        final double major = trace / 2 + disc;
+        final double minor = Math.max(0, trace / 2 - disc);
+        out[o++] = (float) (SCALAR_WEIGHT * Math.sqrt(minor / major));
+
+        // Straightness.
+        final double ends = Math.hypot(mPathX[points - 1] - mPathX[0],
+                mPathY[points - 1] - mPathY[0]);
+        out[o++] = (float) (SCALAR_WEIGHT * ends / length);
+
+        // Convex hull of the key centres.
+        final Geometry hull = mGeometryFactory.createMultiPoint(
+                fillCoordinates(points)).convexHull();
+        final double hullArea = hull.getArea();
+        // Collinear keys give a line for a hull; walk around it both ways.
+        final double hullPerimeter = hull.getDimension() < 2
+                ? 2 * hull.getLength() : hull.getLength();
+        out[o++] = (float) (SCALAR_WEIGHT * 4 * Math.PI * hullArea
+                / (hullPerimeter * hullPerimeter));
+        out[o] = (float) (SCALAR_WEIGHT * Math.min(1, hullPerimeter / (2 * length)));
+        return true;
+    }
+
+    /** Number of distinct key centres on the path of the last computed word. */
+    int getPathPointCount() {
+        return mPathPoints;
+    }
+
+    double getPathX(int i) {
+        return mPathX[i];
+    }
+
+    double getPathY(int i) {
+        return mPathY[i];
+    }
+
+    /** Length, in key units, of the path of the last computed word. */
+    double getPathLength() {
+        return mPathLength;
+    }
+
+    /**
+     * Fill the path buffers with the key centres of <var>word</var>,
+     * dropping repeats of the same key.  Returns the number of points, or
+     * -1 if a letter has no key.
+     */
+    private int buildPath(CharSequence word) {
+        final int length = word.length();
+        if (mPathX.length < length) {
+            mPathX = new double[length];
+            mPathY = new double[length];
+        }
+        int points = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = word.charAt(i);
+            if (!mGeometry.hasKey(c)) {
+                return -1;
+            }
+            final double x = mGeometry.getX(c);
+            final double y = mGeometry.getY(c);
+            if (points > 0 && x == mPathX[points - 1] && y == mPathY[points - 1]) {
+                continue;
+            }
+            mPathX[points] = x;
+            mPathY[points] = y;
+            points++;
+        }
+        return points;
+    }
+
+    /**
+     * Resample the path evenly by arc length into the sample buffers and
+     * return its total length.
+     */
+    private double resample(int points) {
+        double length = 0;
+        for (int i = 1; i < points; i++) {
+            length += Math.hypot(mPathX[i] - mPathX[i - 1], mPathY[i] - mPathY[i - 1]);
+        }
+        final double step = length / (RESAMPLE_POINTS - 1);
+        int segment = 1;
+        double segmentStart = 0;
+        double segmentLength = Math.hypot(mPathX[1] - mPathX[0], mPathY[1] - mPathY[0]);
+        for (int i = 0; i < RESAMPLE_POINTS; i++) {
+            final double at = Math.min(i * step, length);
+            while (segment < points - 1 && at > segmentStart + segmentLength) {
+                segmentStart += segmentLength;
+                segment++;
+                segmentLength = Math.hypot(mPathX[segment] - mPathX[segment - 1],
+                        mPathY[segment] - mPathY[segment - 1]);
+            }
+            final double t = segmentLength > 0 ? (at - segmentStart) / segmentLength : 0;
+            mSampleX[i] = mPathX[segment - 1] + t * (mPathX[segment] - mPathX[segment - 1]);
+            mSampleY[i] = mPathY[segment - 1] + t * (mPathY[segment] - mPathY[segment - 1]);
+        }
+        return length;
+    }
+
+    private Coordinate[] fillCoordinates(int points) {
+        if (mCoordinates.length < points) {
+            mCoordinates = new Coordinate[Math.max(points, mCoordinates.length * 2)];
+        }
+        final Coordinate[] coordinates = new Coordinate[points];
+        for (int i = 0; i < points; i++) {
+            if (mCoordinates[i] == null) {
+                mCoordinates[i] = new Coordinate();
+            }
+            coordinates[i] = mCoordinates[i];
+            coordinates[i].x = mPathX[i];
+            coordinates[i].y = mPathY[i];
+        }
+        return coordinates;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.softkeyboard;
+
+/**
+ * A KD-tree over fixed length descriptors for exact k-nearest-neighbour
+ * queries by squared Euclidean distance.
+ *
+ * <p>The tree is implicit: it is stored as one flat array of points, where
+ * the node for a range <code>[lo, hi)</code> is the point at its middle, and
+ * its children are the ranges on either side.  Building sorts the points
+ * into that order; nothing else is allocated per node, and queries allocate
+ * nothing.  The index is immutable once built and may be queried from
+ * several threads at once.
+ */
+final class ShapeIndex {
+
+    private final int mDimensions;
+    private final int mCount;
+    /** Descriptors in tree order, <code>mDimensions</code> floats each. */
+    private final float[] mPoints;
+    /** Caller's id for each point. */
+    private final int[] mIds;
+    /** Split dimension of the node at each position. */
+    private final byte[] mSplitDimensions;
+
+    private ShapeIndex(int dimensions, int count, float[] points, int[] ids, byte[] splits) {
+        mDimensions = dimensions;
+        mCount = count;
+        mPoints = points;
+        mIds = ids;
+        mSplitDimensions = splits;
+    }
+
+    /**
+     * Build an index over the first <var>count</var> descriptors in
+     * <var>points</var>, identified by <var>ids</var>.  Both arrays are
+     * taken over and reordered.
+     */
+    static ShapeIndex build(int dimensions, float[] points, int[] ids, int count) {
+        final byte[] splits = new byte[count];
+        final float[] swap = new float[dimensions];
+        build(dimensions, points, ids, splits, swap, 0, count);
+        return new ShapeIndex(dimensions, count, points, ids, splits);
+    }
+
+    private static void build(int dimensions, float[] points, int[] ids, byte[] splits,
+            float[] swap, int lo, int hi) {
+        while (hi - lo > 1) {
+            // Split on the dimension with the widest spread.
+            int splitDimension = 0;
+            float widest = -1;
+            for (int d = 0; d < dimensions; d++) {
+                float min = Float.MAX_VALUE;
+                float max = -Float.MAX_VALUE;
+                for (int i = lo; i < hi; i++) {
+                    final float v = points[i * dimensions + d];
+                    if (v < min) min = v;
+                    if (v > max) max = v;
+                }
+                if (max - min > widest) {
+                    widest = max - min;
+                    splitDimension = d;
+                }
+            }
+            final int mid = (lo + hi) >>> 1;
+            select(dimensions, points, ids, swap, lo, hi - 1, mid, splitDimension);
+            splits[mid] = (byte) splitDimension;
+            build(dimensions, points, ids, splits, swap, lo, mid);
+            lo = mid + 1;
+        }
+    }
+
+    /**
+     * Quickselect: reorder <code>[left, right]</code> so that position
+     * <var>k</var> holds the point that would be there if sorted on
+     * <var>dimension</var>, with no greater values before it and no smaller
+     * ones after.
+     */
+    private static void select(int dimensions, float[] points, int[] ids, float[] swap,
+            int left, int right, int k, int dimension) {
+        while (right > left) {
+            final float pivot = points[((left + right) >>> 1) * dimensions + dimension];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (points[i * dimensions + dimension] < pivot) i++;
+                while (points[j * dimensions + dimension] > pivot) j--;
+                if (i <= j) {
+                    swap(dimensions, points, ids, swap, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private static void swap(int dimensions, float[] points, int[] ids, float[] tmp,
+            int a, int b) {
+        System.arraycopy(points, a * dimensions, tmp, 0, dimensions);
+        System.arraycopy(points, b * dimensions, points, a * dimensions, dimensions);
+        System.arraycopy(tmp, 0, points, b * dimensions, dimensions);
+        final int id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    int getDimensions() {
+        return mDimensions;
+    }
+
+    /**
+     * Find the <var>k</var> points nearest to <var>query</var>, k being the
+     * length of <var>outIds</var>.  Their ids and squared distances are
+     * written to <var>outIds</var> and <var>outDistances</var>, nearest
+     * first.  Returns how many were found, which is less than k only if the
+     * index is smaller than that.
+     */
+    int query(float[] query, int[] outIds, float[] outDistances) {
+        final int k = Math.min(outIds.length, mCount);
+        if (k == 0) return 0;
+        // outIds/outDistances hold a max-heap on distance while searching.
+        final int found = search(query, outIds, outDistances, k, 0, 0, mCount);
+        // Heap sort into ascending order.
+        for (int end = found - 1; end > 0; end--) {
+            swapHeap(outIds, outDistances, 0, end);
+            siftDown(outIds, outDistances, 0, end);
+        }
+        return found;
+    }
+
+    private int search(float[] query, int[] heapIds, float[] heapDistances, int k, int size,
+            int lo, int hi) {
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            final int base = mid * mDimensions;
+            float distance = 0;
+            for (int d = 0; d < mDimensions; d++) {
+                final float diff = query[d] - mPoints[base + d];
+                distance += diff * diff;
+            }
+            if (size < k) {
+                heapIds[size] = mIds[mid];
+                heapDistances[size] = distance;
+                siftUp(heapIds, heapDistances, size);
+                size++;
+            } else if (distance < heapDistances[0]) {
+                heapIds[0] = mIds[mid];
+                heapDistances[0] = distance;
+                siftDown(heapIds, heapDistances, 0, size);
+            }
+            if (hi - lo == 1) break;
+
+            final int splitDimension = mSplitDimensions[mid];
+            final float diff = query[splitDimension] - mPoints[base + splitDimension];
+            final int nearLo, nearHi, farLo, farHi;
+            if (diff < 0) {
+                nearLo = lo; nearHi = mid; farLo = mid + 1; farHi = hi;
+            } else {
+                nearLo = mid + 1; nearHi = hi; farLo = lo; farHi = mid;
+            }
+            size = search(query, heapIds, heapDistances, k, size, nearLo, nearHi);
+            if (size == k && diff * diff >= heapDistances[0]) break;
+            // Continue with the far side without recursing.
+            lo = farLo;
+            hi = farHi;
+        }
+        return size;
+    }
+
+    private static void siftUp(int[] ids, float[] distances, int i) {
+        while (i > 0) {
+            final int parent = (i - 1) >>> 1;
+            if (distances[parent] >= distances[i]) return;
+            swapHeap(ids, distances, parent, i);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(int[] ids, float[] distances, int i, int size) {
+        while (true) {
+            final int left = 2 * i + 1;
+            if (left >= size) return;
+            int largest = left;
+            if (left + 1 < size && distances[left + 1] > distances[left]) largest = left + 1;
+            if (distances[i] >= distances[largest]) return;
+            swapHeap(ids, distances, i, largest);
+            i = largest;
+        }
+    }
+
+    private static void swapHeap(int[] ids, float[] distances, int a, int b) {
+        final int id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+        final float distance = distances[a];
+        distances[a] = distances[b];
+        distances[b] = distance;
+    }
+
+    /** Rough heap footprint of this index, in bytes. */
+    int estimateSizeBytes() {
+        return 48 + mPoints.length * 4 + mIds.length * 4 + mSplitDimensions.length;
+    }
+}
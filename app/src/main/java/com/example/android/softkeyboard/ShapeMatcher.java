@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.softkeyboard;
+
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+import java.io.PrintWriter;
+
+/**
+ * Finds the dictionary words whose key path best matches the typed word's,
+ * as a cascade of increasingly expensive stages:
+ * <ol>
+ * <li>the {@link ShapeIndex} proposes a fixed number of nearest shapes,</li>
+ * <li>candidates whose first or last key is not the typed one or a
+ *     neighbour of it are dropped,</li>
+ * <li>then those whose path length is outside a band around the typed
+ *     one,</li>
+ * <li>then those whose path bounds barely overlap the typed path's,</li>
+ * <li>and only the survivors are measured by their discrete Hausdorff
+ *     distance to the typed path, which ranks them.  They are measured a
+ *     block at a time by a {@link KeyPathBlock}.</li>
+ * </ol>
+ * Since the first stage proposes a fixed number of candidates, the cost per
+ * keystroke is bounded whatever the size of the lexicon.  The later stages
+ * can also be run against a deadline and resumed, giving the best matches
+ * found so far each time.  How many candidates each stage prunes is counted
+ * and reported by {@link #dump}.
+ *
+ * <p>Not thread safe; the service keeps one for the main thread.
+ */
+final class ShapeMatcher {
+
+    /** How many nearest shapes the index proposes. */
+    private static final int CANDIDATES = 32;
+    /** Squared distance, in keys, within which first and last keys match. */
+    private static final double END_KEY_DISTANCE_SQUARED = 1.25 + 1e-6;
+    /** Largest ratio between the typed and candidate path lengths. */
+    private static final double LENGTH_RATIO = 1.6;
+    /** Half a key: paths are bounded by the keys they cross, not their centres. */
+    private static final double KEY_MARGIN = 0.5;
+    /** Smallest intersection over union of the bounds. */
+    private static final double MIN_ENVELOPE_OVERLAP = 0.3;
+    /** Candidates measured together; the deadline is checked between blocks. */
+    private static final int BLOCK_SIZE = 8;
+
+    private final GeometryFactory mGeometryFactory;
+    private LanguagePack mPack;
+    private ShapeDescriptor mDescriptor;
+
+    private final float[] mTypedShape = new float[ShapeDescriptor.SIZE];
+    private final int[] mCandidates = new int[CANDIDATES];
+    private final float[] mCandidateDistances = new float[CANDIDATES];
+    private final int[] mKept = new int[CANDIDATES];
+    private final double[] mScores = new double[CANDIDATES];
+    private KeyPathBlock mTypedPath;
+    private KeyPathBlock mBlock;
+    private final float[] mBlockDistances = new float[BLOCK_SIZE];
+
+    // State of the match in progress, see start() and resume().
+    private String mTyped;
+    private double mTypedLength;
+    private double mTypedMinX, mTypedMinY, mTypedMaxX, mTypedMaxY;
+    private int mFound;
+    private int mNext;
+    private int mKeptCount;
+
+    private long mQueries;
+    private long mProposed;
+    private long mRejectedByEnds;
+    private long mRejectedByLength;
+    private long mRejectedByEnvelope;
+    private long mMeasured;
+
+    ShapeMatcher(GeometryFactory geometryFactory) {
+        mGeometryFactory = geometryFactory;
+    }
+
+    /** Match against the words of <var>pack</var>, or nothing if it is null. */
+    void setLanguagePack(LanguagePack pack) {
+        if (pack != mPack) {
+            mPack = pack;
+            mDescriptor = null;
+            mTypedPath = null;
+            mBlock = null;
+            if (pack != null) {
+                final KeyGeometry geometry = pack.getKeyGeometry();
+                mDescriptor = new ShapeDescriptor(geometry, mGeometryFactory);
+                mTypedPath = new KeyPathBlock(geometry, 1, 16);
+                mBlock = new KeyPathBlock(geometry, BLOCK_SIZE, BLOCK_SIZE * 12);
+            }
+            mFound = 0;
+            mNext = 0;
+            mKeptCount = 0;
+        }
+    }
+
+    /**
+     * Begin matching <var>typed</var>, abandoning any match in progress:
+     * describe it and run the index query.  Returns false if the word has no
+     * shape to match.
+     */
+    boolean start(CharSequence typed) {
+        mFound = 0;
+        mNext = 0;
+        mKeptCount = 0;
+        if (mPack == null || !mDescriptor.compute(typed, mTypedShape, 0)) {
+            return false;
+        }
+        mQueries++;
+        mTyped = typed.toString();
+        mFound = mPack.getShapeIndex().query(mTypedShape, mCandidates, mCandidateDistances);
+        mProposed += mFound;
+
+        // The typed path and its bounds, from the descriptor's last computation.
+        mTypedPath.clear();
+        mTypedPath.add(-1, typed);
+        final int typedPoints = mDescriptor.getPathPointCount();
+        mTypedLength = mDescriptor.getPathLength();
+        mTypedMinX = mTypedMinY = Double.MAX_VALUE;
+        mTypedMaxX = mTypedMaxY = -Double.MAX_VALUE;
+        for (int i = 0; i < typedPoints; i++) {
+            final double x = mDescriptor.getPathX(i);
+            final double y = mDescriptor.getPathY(i);
+            mTypedMinX = Math.min(mTypedMinX, x);
+            mTypedMinY = Math.min(mTypedMinY, y);
+            mTypedMaxX = Math.max(mTypedMaxX, x);
+            mTypedMaxY = Math.max(mTypedMaxY, y);
+        }
+        return true;
+    }
+
+    /** Abandon any match in progress, so that {@link #isDone} is true. */
+    void cancel() {
+        mFound = 0;
+        mNext = 0;
+        mKeptCount = 0;
+    }
+
+    /** True once every candidate of the current match has been looked at. */
+    boolean isDone() {
+        return mNext >= mFound;
+    }
+
+    /**
+     * Work on the current match until it is done or
+     * <code>System.nanoTime()</code> reaches <var>deadlineNanos</var>, then
+     * write the indexes of the best words found so far to
+     * <var>outWords</var>, best first, and return how many there are.  Call
+     * again to refine the result if {@link #isDone} is false.  The typed
+     * word itself is not excluded.
+     */
+    int resume(long deadlineNanos, int[] outWords) {
+        final KeyGeometry geometry = mPack != null ? mPack.getKeyGeometry() : null;
+        final char typedFirst = mFound > 0 ? mTyped.charAt(0) : 0;
+        final char typedLast = mFound > 0 ? mTyped.charAt(mTyped.length() - 1) : 0;
+
+        while (mNext < mFound && System.nanoTime() < deadlineNanos) {
+            // Fill a block with the candidates that pass the cheap stages.
+            mBlock.clear();
+            while (mNext < mFound && mBlock.size() < BLOCK_SIZE) {
+                final int word = mCandidates[mNext++];
+                final String candidate = mPack.getWord(word);
+
+                final char last = candidate.charAt(candidate.length() - 1);
+                if (!nearKeys(geometry, typedFirst, candidate.charAt(0))
+                        || !nearKeys(geometry, typedLast, last)) {
+                    mRejectedByEnds++;
+                    continue;
+                }
+
+                final double length = mPack.getPathLength(word);
+                if (length * LENGTH_RATIO < mTypedLength
+                        || length > mTypedLength * LENGTH_RATIO) {
+                    mRejectedByLength++;
+                    continue;
+                }
+
+                final double overlap = envelopeOverlap(
+                        mTypedMinX, mTypedMinY, mTypedMaxX, mTypedMaxY,
+                        mPack.getPathEnvelope(word, 0), mPack.getPathEnvelope(word, 1),
+                        mPack.getPathEnvelope(word, 2), mPack.getPathEnvelope(word, 3));
+                if (overlap < MIN_ENVELOPE_OVERLAP) {
+                    mRejectedByEnvelope++;
+                    continue;
+                }
+
+                mBlock.add(word, candidate);
+            }
+
+            final int measured = mBlock.size();
+            mMeasured += measured;
+            mBlock.distancesTo(mTypedPath, 0, mBlockDistances);
+            for (int i = 0; i < measured; i++) {
+                mKeptCount = insert(mBlock.getWord(i), mBlockDistances[i], mKeptCount);
+            }
+        }
+
+        final int count = Math.min(mKeptCount, outWords.length);
+        System.arraycopy(mKept, 0, outWords, 0, count);
+        return count;
+    }
+
+    /**
+     * Insert <var>word</var> into the first <var>count</var> kept entries,
+     * ordered by score and then frequency.  Returns the new count.
+     */
+    private int insert(int word, double score, int count) {
+        int pos = count++;
+        while (pos > 0 && (mScores[pos - 1] > score || (mScores[pos - 1] == score
+                && mPack.getFrequency(mKept[pos - 1]) < mPack.getFrequency(word)))) {
+            mScores[pos] = mScores[pos - 1];
+            mKept[pos] = mKept[pos - 1];
+            pos--;
+        }
+        mScores[pos] = score;
+        mKept[pos] = word;
+        return count;
+    }
+
+    private static boolean nearKeys(KeyGeometry geometry, char a, char b) {
+        if (!geometry.hasKey(a) || !geometry.hasKey(b)) return false;
+        final double dx = geometry.getX(a) - geometry.getX(b);
+        final double dy = geometry.getY(a) - geometry.getY(b);
+        return dx * dx + dy * dy <= END_KEY_DISTANCE_SQUARED;
+    }
+
+    /** Intersection over union of two bounds, each grown by half a key. */
+    private static double envelopeOverlap(double minX1, double minY1, double maxX1, double maxY1,
+            double minX2, double minY2, double maxX2, double maxY2) {
+        final double width = Math.min(maxX1, maxX2) - Math.max(minX1, minX2) + 2 * KEY_MARGIN;
+        final double height = Math.min(maxY1, maxY2) - Math.max(minY1, minY2) + 2 * KEY_MARGIN;
+        if (width <= 0 || height <= 0) return 0;
+        final double intersection = width * height;
+        final double area1 = (maxX1 - minX1 + 2 * KEY_MARGIN) * (maxY1 - minY1 + 2 * KEY_MARGIN);
+        final double area2 = (maxX2 - minX2 + 2 * KEY_MARGIN) * (maxY2 - minY2 + 2 * KEY_MARGIN);
+        return intersection / (area1 + area2 - intersection);
+    }
+
+    void dump(PrintWriter pw) {
+        pw.println("Shape matching:");
+        pw.println("  queries=" + mQueries + " proposed=" + mProposed
+                + " prunedByEnds=" + mRejectedByEnds
+                + " prunedByLength=" + mRejectedByLength
+                + " prunedByEnvelope=" + mRejectedByEnvelope
+                + " measured=" + mMeasured);
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.softkeyboard;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The per-word shape data of a lexicon: for each word, sorted, its frequency,
+ * the length and bounds of its key path, and its {@link ShapeDescriptor}.
+ * Words without a shape have a path length of 0.
+ *
+ * <p>Tables are computed when a language pack is loaded, or ahead of time
+ * by the lexicon builder in the tools module, which writes them in the
+ * binary form read by {@link #read}:
+ * <pre>
+ * int magic, int version, int descriptor size, int word count,
+ * then per word, in order:
+ *   UTF word, byte frequency, float path length, 4 floats bounds
+ *   (min x, min y, max x, max y), descriptor size floats descriptor
+ * </pre>
+ * all big endian.  Equal tables are written byte for byte identically.
+ */
+final class ShapeTable {
+
+    static final int MAGIC = 0x53485054; // "SHPT"
+    static final int VERSION = 1;
+
+    private final String[] mWords;
+    private final int[] mFrequencies;
+    private final float[] mPathLengths;
+    private final float[] mEnvelopes;
+    private final float[] mDescriptors;
+
+    /**
+     * Make an empty table for <var>words</var>, which must be sorted, to be
+     * filled in with {@link #compute}.
+     */
+    ShapeTable(String[] words, int[] frequencies) {
+        mWords = words;
+        mFrequencies = frequencies;
+        mPathLengths = new float[words.length];
+        mEnvelopes = new float[words.length * 4];
+        mDescriptors = new float[words.length * ShapeDescriptor.SIZE];
+    }
+
+    /**
+     * Make an empty table from a word list of "word&lt;TAB&gt;frequency"
+     * lines, skipping blank lines and lines starting with '#'.  Words are
+     * lower cased and sorted; a missing frequency counts as 1, and a word
+     * listed twice keeps its highest frequency.
+     */
+    static ShapeTable fromWordList(InputStream in) throws IOException {
+        final Map<String, Integer> entries = new TreeMap<String, Integer>();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.length() == 0 || line.charAt(0) == '#') continue;
+            final int tab = line.indexOf('\t');
+            int frequency = 1;
+            if (tab >= 0) {
+                try {
+                    frequency = Integer.parseInt(line.substring(tab + 1).trim());
+                } catch (NumberFormatException e) {
+                    // Keep the default.
+                }
+                line = line.substring(0, tab);
+            }
+            final String word = line.toLowerCase(Locale.ROOT);
+            frequency = Math.max(1, Math.min(255, frequency));
+            final Integer previous = entries.get(word);
+            if (previous == null || previous < frequency) {
+                entries.put(word, frequency);
+            }
+        }
+
+        final String[] words = new String[entries.size()];
+        final int[] frequencies = new int[entries.size()];
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : entries.entrySet()) {
+            words[i] = entry.getKey();
+            frequencies[i] = entry.getValue();
+            i++;
+        }
+        return new ShapeTable(words, frequencies);
+    }
+
+    /**
+     * Fill in the shapes of the words in <code>[from, to)</code>.  Disjoint
+     * ranges may be computed concurrently, each with its own descriptor.
+     */
+    void compute(ShapeDescriptor descriptor, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!descriptor.compute(mWords[i], mDescriptors, i * ShapeDescriptor.SIZE)) {
+                continue;
+            }
+            mPathLengths[i] = (float) descriptor.getPathLength();
+            float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+            float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+            for (int p = 0; p < descriptor.getPathPointCount(); p++) {
+                final float x = (float) descriptor.getPathX(p);
+                final float y = (float) descriptor.getPathY(p);
+                minX = Math.min(minX, x);
+                minY = Math.min(minY, y);
+                maxX = Math.max(maxX, x);
+                maxY = Math.max(maxY, y);
+            }
+            mEnvelopes[i * 4] = minX;
+            mEnvelopes[i * 4 + 1] = minY;
+            mEnvelopes[i * 4 + 2] = maxX;
+            mEnvelopes[i * 4 + 3] = maxY;
+        }
+    }
+
+    int size() {
+        return mWords.length;
+    }
+
+    String[] getWords() {
+        return mWords;
+    }
+
+    int[] getFrequencies() {
+        return mFrequencies;
+    }
+
+    float[] getPathLengths() {
+        return mPathLengths;
+    }
+
+    float[] getEnvelopes() {
+        return mEnvelopes;
+    }
+
+    /** Index the descriptors of every word that has a shape, by word index. */
+    ShapeIndex buildIndex() {
+        final int dimensions = ShapeDescriptor.SIZE;
+        final float[] points = new float[mWords.length * dimensions];
+        final int[] ids = new int[mWords.length];
+        int count = 0;
+        for (int i = 0; i < mWords.length; i++) {
+            if (mPathLengths[i] == 0) continue;
+            System.arraycopy(mDescriptors, i * dimensions, points, count * dimensions, dimensions);
+            ids[count++] = i;
+        }
+        return ShapeIndex.build(dimensions, points, ids, count);
+    }
+
+    void write(OutputStream stream) throws IOException {
+        final DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(ShapeDescriptor.SIZE);
+        out.writeInt(mWords.length);
+        for (int i = 0; i < mWords.length; i++) {
+            out.writeUTF(mWords[i]);
+            out.writeByte(mFrequencies[i]);
+            out.writeFloat(mPathLengths[i]);
+            for (int e = 0; e < 4; e++) {
+                out.writeFloat(mEnvelopes[i * 4 + e]);
+            }
+            for (int d = 0; d < ShapeDescriptor.SIZE; d++) {
+                out.writeFloat(mDescriptors[i * ShapeDescriptor.SIZE + d]);
+            }
+        }
+        out.flush();
+    }
+
+    /** Read a table written by {@link #write}. */
+    static ShapeTable read(InputStream stream) throws IOException {
+        final DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC || in.readInt() != VERSION
+                || in.readInt() != ShapeDescriptor.SIZE) {
+            throw new IOException("Not a shape table of version " + VERSION);
+        }
+        final int count = in.readInt();
+        final String[] words = new String[count];
+        final int[] frequencies = new int[count];
+        final ShapeTable table = new ShapeTable(words, frequencies);
+        for (int i = 0; i < count; i++) {
+            words[i] = in.readUTF();
+            frequencies[i] = in.readUnsignedByte();
+            table.mPathLengths[i] = in.readFloat();
+            for (int e = 0; e < 4; e++) {
+                table.mEnvelopes[i * 4 + e] = in.readFloat();
+            }
+            for (int d = 0; d < ShapeDescriptor.SIZE; d++) {
+                table.mDescriptors[i * ShapeDescriptor.SIZE + d] = in.readFloat();
+            }
+        }
+        return table;
+    }
+}
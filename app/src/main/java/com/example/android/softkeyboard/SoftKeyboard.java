@@ -16,12 +16,20 @@
 
 package com.example.android.softkeyboard;
 
+import android.content.ContentResolver;
+import android.content.pm.ApplicationInfo;
+import android.content.res.Resources;
+import android.database.ContentObserver;
 import android.inputmethodservice.InputMethodService;
 import android.inputmethodservice.Keyboard;
 import android.inputmethodservice.KeyboardView;
+import android.os.Handler;
+import android.preference.PreferenceManager;
+import android.provider.UserDictionary;
+import android.util.Log;
 import android.text.InputType;
+import android.text.TextUtils;
 import android.text.method.MetaKeyKeyListener;
-import android.util.Log;
 import android.view.KeyCharacterMap;
 import android.view.KeyEvent;
 import android.view.View;
@@ -31,21 +39,15 @@ import android.view.inputmethod.InputConnection;
 import android.view.inputmethod.InputMethodManager;
 import android.view.inputmethod.InputMethodSubtype;
 
-import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.GeometryFactory;
-import com.vividsolutions.jts.geom.LineString;
-import com.vividsolutions.jts.geom.LinearRing;
-import com.vividsolutions.jts.geom.MultiPoint;
-import com.vividsolutions.jts.geom.Polygon;
-import com.vividsolutions.jts.geom.PrecisionModel;
-
-import org.json.JSONException;
-import org.json.JSONObject;
 
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Example of writing an input method for a soft keyboard.  This code is
@@ -55,7 +57,10 @@ import java.util.Map;
  * be fleshed out as appropriate.
  */
 public class SoftKeyboard extends InputMethodService 
-        implements KeyboardView.OnKeyboardActionListener {
+        implements KeyboardView.OnKeyboardActionListener,
+        LatinKeyboardView.SpeculativePressListener {
+    private static final String TAG = "SoftKeyboard";
+
     static final boolean DEBUG = false;
     
     /**
@@ -68,6 +73,38 @@ public class SoftKeyboard extends InputMethodService
      */
     static final boolean PROCESS_HARD_KEYS = true;
 
+    /** How many dictionary completions to offer after the typed word. */
+    private static final int MAX_COMPLETIONS = 5;
+    /** How many of the user's words to offer before those. */
+    private static final int MAX_USER_COMPLETIONS = 3;
+
+    /** How many words with a similar key path shape to offer. */
+    private static final int MAX_SHAPE_SUGGESTIONS = 3;
+
+    /**
+     * Time a keystroke may spend looking for suggestions, so the strip is
+     * updated within a frame however slow the device or large the lexicon.
+     * The best suggestions found by then are shown.
+     */
+    private static final long SUGGESTION_DEADLINE_NANOS = 8 * 1000 * 1000;
+
+    /**
+     * Whether a search cut short by its deadline goes on in later slices of
+     * the same length, updating the strip as its results improve.
+     */
+    private static final boolean PROGRESSIVE_SUGGESTIONS = true;
+
+    /** How many composing texts' suggestions are remembered. */
+    private static final int SUGGESTION_CACHE_SIZE = 64;
+
+    /** Preference turning on speculative presses, see {@link #onPress}. */
+    static final String PREF_SPECULATIVE_PRESS = "speculative_press";
+
+    /** Memory pressure tiers, each releasing more than the one before. */
+    private static final int TRIM_CACHES = 1;
+    private static final int TRIM_KEYBOARDS = 2;
+    private static final int TRIM_DICTIONARIES = 3;
+
     private InputMethodManager mInputMethodManager;
 
     private LatinKeyboardView mInputView;
@@ -87,17 +124,316 @@ public class SoftKeyboard extends InputMethodService
     private LatinKeyboard mQwertyKeyboard;
     
     private LatinKeyboard mCurKeyboard;
+    private KeyIconCache mKeyIcons;
     
     private String mWordSeparators;
+
+    private final ImeInitializer mInitializer = new ImeInitializer();
+    private LanguagePacks mLanguagePacks;
+    private LanguagePack mLanguagePack;
+    /** The locale whose pack we want, which may still be loading. */
+    private String mLanguageLocale;
+
+    private ShapeMatcher mShapeMatcher;
+    private final int[] mShapeMatches = new int[MAX_SHAPE_SUGGESTIONS];
+
+    private final CountingInputConnection mInputConnection = new CountingInputConnection();
+
+    private final Handler mHandler = new Handler();
+    /** The suggestions being refined, before shape matches are added. */
+    private List<String> mRefiningSuggestions;
+    private boolean mRefiningCompletions;
+    private boolean mRefiningTypedWordValid;
+    private String mRefiningWord;
+    private String mRefiningContext;
+    /** Whether the refined suggestions are complete enough to be cached. */
+    private boolean mRefiningCacheable;
+    private final Runnable mRefineSuggestions = new Runnable() {
+        @Override
+        public void run() {
+            refineSuggestions();
+        }
+    };
+
+    /** Computes the candidates once per frame, see {@link #updateCandidates}. */
+    private final FrameScheduler mCandidateUpdates = new FrameScheduler(new Runnable() {
+        @Override
+        public void run() {
+            computeCandidates();
+        }
+    });
+
+    /** Writes long text from {@link #onText} a chunk at a time. */
+    private final ChunkedTextWriter mTextWriter = new ChunkedTextWriter(
+            new ChunkedTextWriter.Listener() {
+                @Override
+                public void onTextWritten() {
+                    updateShiftKeyState(getCurrentInputEditorInfo());
+                    updateCandidates();
+                }
+            });
+
+    /** Suggestions of recent composing texts, see {@link #computeCandidates}. */
+    private final SuggestionCache mSuggestionCache = new SuggestionCache(SUGGESTION_CACHE_SIZE);
+    private ContentObserver mUserDictionaryObserver;
+    /** Gathers the user's words from their sources into {@link #mUserWords}. */
+    private UserLexicon mUserLexicon;
+    /** Stands in for a word source in debuggable builds, see {@link #dump}. */
+    private InMemoryWordSource mDebugWords;
+    private long mDebugWordRows;
+    /** The words of the user, merged in the background; null until then. */
+    private UserLexicon.Words mUserWords;
+
+    /** Shortcuts to expand, loaded in the background; null until then. */
+    private TextExpander mTextExpander;
+    /** State of {@link #mTextExpander} after what was typed, -1 to restart. */
+    private int mShortcutState = -1;
+    /** Whether the editor takes prose, so shortcuts may be expanded in it. */
+    private boolean mShortcutsOn;
+    private long mShortcutExpansions;
+
+    private SymbolSearch mSymbolSearch;
+
+    /** Where the user touches the keys of the qwerty layout. */
+    private TouchModel mTouchModel;
+    private WarmStartSnapshot mSnapshot;
+
+    /** Key shown as typed when touched, 0 if none is pending; see {@link #onPress}. */
+    private int mSpeculativeCode;
+    /** The character it added to the composing text, and the length before it. */
+    private char mSpeculativeChar;
+    private int mSpeculativeLength;
+    private long mSpeculativePresses;
+    private long mSpeculativePressesUndone;
+
+    private long mSuggestionSearches;
+    private long mSuggestionDeadlineHits;
+    private long mSuggestionRefinements;
     
     /**
      * Main initialization of the input method component.  Be sure to call
-     * to super class.
+     * to super class.  Only what is needed to show the keyboard is done
+     * here; suggestion resources are loaded in the background by
+     * {@link ImeInitializer}.
      */
     @Override public void onCreate() {
         super.onCreate();
         mInputMethodManager = (InputMethodManager)getSystemService(INPUT_METHOD_SERVICE);
+        mLanguagePacks = LanguagePacks.getInstance(this);
+        mLanguageLocale = getSubtypeLocale(mInputMethodManager.getCurrentInputMethodSubtype());
+        mInitializer.start(this, mLanguageLocale, new ImeInitializer.Listener() {
+            @Override
+            public void onSuggestionResourcesReady() {
+                // Anything typed while we were loading gets suggestions
+                // as soon as the pack is applied.
+                selectLanguage(mLanguageLocale);
+            }
+        });
         mWordSeparators = getResources().getString(R.string.word_separators);
+        mSymbolSearch = new SymbolSearch(getResources());
+        ImeStats.setCountingAllocations(
+                (getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0);
+
+        // Shortcuts include the user dictionary's, so reload them when it
+        // changes.  The user's words are kept up to date row by row by the
+        // user lexicon.
+        mUserDictionaryObserver = new ContentObserver(mHandler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                loadShortcuts();
+            }
+        };
+        getContentResolver().registerContentObserver(UserDictionary.Words.CONTENT_URI, true,
+                mUserDictionaryObserver);
+        loadShortcuts();
+        mUserLexicon = new UserLexicon(new UserLexicon.Listener() {
+            @Override
+            public void onUserWordsChanged(UserLexicon.Words words) {
+                // Cached suggestions may lack the new words or offer removed ones.
+                mSuggestionCache.clear();
+                mUserWords = words;
+                if (mComposing.length() > 0) {
+                    updateCandidates();
+                }
+            }
+        });
+        mUserLexicon.addSource(new UserDictionaryWordSource(getContentResolver(), mHandler));
+        if ((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0) {
+            mDebugWords = new InMemoryWordSource("debug");
+            mUserLexicon.addSource(mDebugWords);
+        }
+        mSnapshot = WarmStartSnapshot.getInstance(this);
+        loadTouchModel();
+    }
+
+    /**
+     * Read the touch model from the warm start snapshot in the background,
+     * and use it unless the user has started teaching a new one meanwhile.
+     */
+    private void loadTouchModel() {
+        final WarmStartSnapshot snapshot = mSnapshot;
+        BackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final InputStream in = snapshot.get(WarmStartSnapshot.TOUCH_MODEL);
+                if (in == null) return;
+                try {
+                    final TouchModel model = TouchModel.read(in);
+                    BackgroundExecutor.postToMain(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (mTouchModel == null || mTouchModel.isEmpty()) {
+                                mTouchModel = model;
+                                if (mQwertyKeyboard != null) {
+                                    mQwertyKeyboard.setTouchModel(model);
+                                }
+                            }
+                        }
+                    });
+                } catch (IOException e) {
+                    Log.w(TAG, "Cannot read touch model", e);
+                }
+            }
+        });
+    }
+
+    /** Save the touch model in the background if it learned anything. */
+    private void saveTouchModel() {
+        if (mTouchModel == null || !mTouchModel.isDirty()) {
+            return;
+        }
+        mSnapshot.put(WarmStartSnapshot.TOUCH_MODEL, false, mTouchModel.toByteArray());
+        mSnapshot.saveAsync();
+    }
+
+    /** Build the shortcut automaton in the background, then swap it in. */
+    private void loadShortcuts() {
+        final Resources res = getResources();
+        final ContentResolver resolver = getContentResolver();
+        BackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final TextExpander expander = TextExpander.load(res, resolver);
+                    BackgroundExecutor.postToMain(new Runnable() {
+                        @Override
+                        public void run() {
+                            mTextExpander = expander;
+                            resetShortcutState();
+                        }
+                    });
+                } catch (IOException e) {
+                    Log.e(TAG, "Cannot load shortcuts", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Whether the composing text is a word the user is likely to mean, so
+     * that it rather than the first completion is recommended.  Until the
+     * lexicon is loaded, every word is.
+     */
+    private boolean isKnownWord(CharSequence word) {
+        if (mLanguagePack == null) {
+            return true;
+        }
+        return mLanguagePack.isKnownWord(word)
+                || (mUserWords != null && mUserWords.mightContain(word));
+    }
+
+    @Override public void onDestroy() {
+        getContentResolver().unregisterContentObserver(mUserDictionaryObserver);
+        mUserLexicon.stop();
+        mCandidateUpdates.cancel();
+        mTextWriter.cancel();
+        ImeStats.setCountingAllocations(false);
+        super.onDestroy();
+    }
+
+    @Override public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        final int tier;
+        if (level >= TRIM_MEMORY_COMPLETE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            tier = TRIM_DICTIONARIES;
+        } else if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_LOW) {
+            tier = TRIM_KEYBOARDS;
+        } else if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            tier = TRIM_CACHES;
+        } else {
+            return;
+        }
+        trimMemory(tier, level >= TRIM_MEMORY_UI_HIDDEN || !isInputViewShown());
+    }
+
+    @Override public void onLowMemory() {
+        super.onLowMemory();
+        trimMemory(TRIM_DICTIONARIES, !isInputViewShown());
+    }
+
+    /**
+     * Let go of what can be rebuilt, up to <var>tier</var>: the remembered
+     * suggestions, then the keyboards and symbol index not in use, then the
+     * language packs.  Anything the user is looking at is kept unless
+     * <var>hidden</var>.  Everything comes back lazily: the suggestion cache
+     * refills as the user types, keyboards are rebuilt when input starts or
+     * when the user switches to them, and language packs and the symbol
+     * index load in the background.
+     */
+    private void trimMemory(int tier, boolean hidden) {
+        long freed = mSuggestionCache.estimateSizeBytes();
+        mSuggestionCache.clear();
+        if (tier >= TRIM_KEYBOARDS) {
+            freed += mSymbolSearch.trimMemory();
+            final Keyboard shown = mInputView != null ? mInputView.getKeyboard() : null;
+            if (mSymbolsKeyboard != null && mSymbolsKeyboard != shown
+                    && mSymbolsKeyboard != mCurKeyboard) {
+                freed += mSymbolsKeyboard.estimateSizeBytes();
+                mSymbolsKeyboard = null;
+            }
+            if (mSymbolsShiftedKeyboard != null && mSymbolsShiftedKeyboard != shown
+                    && mSymbolsShiftedKeyboard != mCurKeyboard) {
+                freed += mSymbolsShiftedKeyboard.estimateSizeBytes();
+                mSymbolsShiftedKeyboard = null;
+            }
+        }
+        if (tier >= TRIM_DICTIONARIES) {
+            if (hidden && mLanguagePack != null) {
+                // Reloaded by selectLanguage() when the input view is next shown.
+                cancelRefinement();
+                mShapeMatcher = null;
+                mLanguagePack = null;
+            }
+            freed += mLanguagePacks.trimMemory(
+                    mLanguagePack != null ? mLanguagePack.getLocale() : null);
+        }
+        ImeStats.increment(ImeStats.TRIMS);
+        ImeStats.add(ImeStats.TRIMMED_BYTES, freed);
+        Log.i(TAG, "Trimmed memory to tier " + tier + (hidden ? " (hidden)" : "")
+                + ", released about " + freed / 1024 + " KB");
+    }
+
+    /** Rebuild the symbol keyboards if memory pressure dropped them. */
+    private void ensureSymbolKeyboards() {
+        if (mQwertyKeyboard == null) {
+            return;
+        }
+        if (mSymbolsKeyboard == null) {
+            mSymbolsKeyboard = LatinKeyboard.load(this, R.raw.layout_symbols, R.xml.symbols);
+        }
+        if (mSymbolsShiftedKeyboard == null) {
+            mSymbolsShiftedKeyboard = LatinKeyboard.load(this, R.raw.layout_symbols_shift,
+                    R.xml.symbols_shift);
+        }
+    }
+
+    /**
+     * The editor's connection, wrapped so that calls to it are counted in
+     * {@link ImeStats}.
+     */
+    @Override public InputConnection getCurrentInputConnection() {
+        final InputConnection ic = super.getCurrentInputConnection();
+        return ic != null ? mInputConnection.wrap(ic) : null;
     }
     
     /**
@@ -113,9 +449,19 @@ public class SoftKeyboard extends InputMethodService
             if (displayWidth == mLastDisplayWidth) return;
             mLastDisplayWidth = displayWidth;
         }
-        mQwertyKeyboard = new LatinKeyboard(this, R.xml.qwerty);
-        mSymbolsKeyboard = new LatinKeyboard(this, R.xml.symbols);
-        mSymbolsShiftedKeyboard = new LatinKeyboard(this, R.xml.symbols_shift);
+        mKeyIcons = new KeyIconCache(getResources());
+        if (mInputView != null) {
+            mInputView.setKeyIconCache(mKeyIcons);
+        }
+        mQwertyKeyboard = LatinKeyboard.load(this, R.raw.layout_qwerty, R.xml.qwerty);
+        if (mTouchModel == null
+                || mTouchModel.getKeyCount() != mQwertyKeyboard.getKeys().size()) {
+            mTouchModel = new TouchModel(mQwertyKeyboard.getKeys().size());
+        }
+        mQwertyKeyboard.setTouchModel(mTouchModel);
+        mSymbolsKeyboard = LatinKeyboard.load(this, R.raw.layout_symbols, R.xml.symbols);
+        mSymbolsShiftedKeyboard = LatinKeyboard.load(this, R.raw.layout_symbols_shift,
+                    R.xml.symbols_shift);
     }
     
     /**
@@ -128,6 +474,13 @@ public class SoftKeyboard extends InputMethodService
         mInputView = (LatinKeyboardView) getLayoutInflater().inflate(
                 R.layout.input, null);
         mInputView.setOnKeyboardActionListener(this);
+        mInputView.setKeyIconCache(mKeyIcons);
+        mInputView.setOnFirstDrawListener(new Runnable() {
+            @Override
+            public void run() {
+                mInitializer.onFirstDraw();
+            }
+        });
         mInputView.setKeyboard(mQwertyKeyboard);
         return mInputView;
     }
@@ -150,10 +503,14 @@ public class SoftKeyboard extends InputMethodService
      */
     @Override public void onStartInput(EditorInfo attribute, boolean restarting) {
         super.onStartInput(attribute, restarting);
+        ensureSymbolKeyboards();
         
         // Reset our state.  We want to do this even if restarting, because
         // the underlying state of the text editor could have changed in any way.
         mComposing.setLength(0);
+        mSpeculativeCode = 0;
+        mSymbolSearch.stop();
+        resetShortcutState();
         updateCandidates();
         
         if (!restarting) {
@@ -164,6 +521,7 @@ public class SoftKeyboard extends InputMethodService
         mPredictionOn = false;
         mCompletionOn = false;
         mCompletions = null;
+        mShortcutsOn = false;
         
         // We are now going to initialize our state based on the type of
         // text being edited.
@@ -188,6 +546,7 @@ public class SoftKeyboard extends InputMethodService
                 // user types).
                 mCurKeyboard = mQwertyKeyboard;
                 mPredictionOn = true;
+                mShortcutsOn = true;
                 
                 // We now look for a few special variations of text that will
                 // modify our behavior.
@@ -198,6 +557,16 @@ public class SoftKeyboard extends InputMethodService
                     // when they are entering a password.
                     mPredictionOn = false;
                 }
+                if (variation == InputType.TYPE_TEXT_VARIATION_PASSWORD
+                        || variation == InputType.TYPE_TEXT_VARIATION_VISIBLE_PASSWORD
+                        || variation == InputType.TYPE_TEXT_VARIATION_WEB_PASSWORD
+                        || variation == InputType.TYPE_TEXT_VARIATION_EMAIL_ADDRESS
+                        || variation == InputType.TYPE_TEXT_VARIATION_WEB_EMAIL_ADDRESS
+                        || variation == InputType.TYPE_TEXT_VARIATION_URI) {
+                    // "<3" or "(c)" must be typed as is in passwords and
+                    // addresses.
+                    mShortcutsOn = false;
+                }
                 
                 if (variation == InputType.TYPE_TEXT_VARIATION_EMAIL_ADDRESS
                         || variation == InputType.TYPE_TEXT_VARIATION_URI
@@ -232,7 +601,9 @@ public class SoftKeyboard extends InputMethodService
         
         // Update the label on the enter key, depending on what the application
         // says it will do.
-        mCurKeyboard.setImeOptions(getResources(), attribute.imeOptions);
+        mCurKeyboard.setImeOptions(mKeyIcons, attribute.imeOptions);
+        // Whether letters are predicted may have changed with the editor.
+        updateKeyPriors();
     }
 
     /**
@@ -241,9 +612,16 @@ public class SoftKeyboard extends InputMethodService
      */
     @Override public void onFinishInput() {
         super.onFinishInput();
+        // Before the connection is retargeted at the next editor.
+        mTextWriter.finish();
+        saveTouchModel();
         
         // Clear current composing text and candidates.
         mComposing.setLength(0);
+        mSpeculativeCode = 0;
+        mSymbolSearch.stop();
+        cancelRefinement();
+        resetShortcutState();
         updateCandidates();
         
         // We only hide the candidates window when finishing input on
@@ -254,22 +632,80 @@ public class SoftKeyboard extends InputMethodService
         
         mCurKeyboard = mQwertyKeyboard;
         if (mInputView != null) {
-            mInputView.closing();
+            // Keep the rendered keyboard around for the next field; only
+            // popups need to go away.
+            mInputView.dismissPopups();
         }
     }
     
     @Override public void onStartInputView(EditorInfo attribute, boolean restarting) {
         super.onStartInputView(attribute, restarting);
-        // Apply the selected keyboard to the input view.
-        mInputView.setKeyboard(mCurKeyboard);
-        mInputView.closing();
+        ensureSymbolKeyboards();
+        // Apply the selected keyboard to the input view.  If it is already
+        // showing, only the keys that changed for this editor get redrawn.
+        if (mInputView.getKeyboard() != mCurKeyboard) {
+            mInputView.setKeyboard(mCurKeyboard);
+        }
+        mInputView.dismissPopups();
+        mInputView.setSpeculativePress(PreferenceManager.getDefaultSharedPreferences(this)
+                .getBoolean(PREF_SPECULATIVE_PRESS, false) ? this : null);
         final InputMethodSubtype subtype = mInputMethodManager.getCurrentInputMethodSubtype();
         mInputView.setSubtypeOnSpaceKey(subtype);
+        selectLanguage(getSubtypeLocale(subtype));
     }
 
     @Override
     public void onCurrentInputMethodSubtypeChanged(InputMethodSubtype subtype) {
+        mSuggestionCache.clear();
         mInputView.setSubtypeOnSpaceKey(subtype);
+        selectLanguage(getSubtypeLocale(subtype));
+    }
+
+    private static String getSubtypeLocale(InputMethodSubtype subtype) {
+        if (subtype == null || TextUtils.isEmpty(subtype.getLocale())) {
+            return LanguagePack.DEFAULT_LOCALE;
+        }
+        return subtype.getLocale();
+    }
+
+    /**
+     * Switch the suggestion resources to the given language.  A recently
+     * used language is applied at once; otherwise it is loaded in the
+     * background, and we keep suggesting from the current one meanwhile.
+     */
+    private void selectLanguage(String locale) {
+        mLanguageLocale = locale;
+        final LanguagePack pack = mLanguagePacks.get(locale);
+        if (pack != null) {
+            applyLanguagePack(pack);
+            return;
+        }
+        mLanguagePacks.load(locale, new LanguagePacks.Callback() {
+            @Override
+            public void onLanguagePackLoaded(String loadedLocale, LanguagePack pack) {
+                if (pack != null && loadedLocale.equals(mLanguageLocale)) {
+                    applyLanguagePack(pack);
+                }
+            }
+        });
+    }
+
+    private void applyLanguagePack(LanguagePack pack) {
+        if (pack == mLanguagePack) {
+            return;
+        }
+        // A refinement would turn the old pack's matches into the new pack's words.
+        cancelRefinement();
+        if (mShapeMatcher != null) {
+            mShapeMatcher.cancel();
+        }
+        mLanguagePack = pack;
+        mLanguagePacks.setInUse(pack);
+        mWordSeparators = pack.getWordSeparators();
+        mSuggestionCache.clear();
+        if (mComposing.length() > 0) {
+            updateCandidates();
+        }
     }
 
     /**
@@ -283,9 +719,14 @@ public class SoftKeyboard extends InputMethodService
         
         // If the current selection in the text view changes, we should
         // clear whatever candidate text we have.
+        if (newSelStart != newSelEnd) {
+            resetShortcutState();
+        }
         if (mComposing.length() > 0 && (newSelStart != candidatesEnd
                 || newSelEnd != candidatesEnd)) {
+            resetShortcutState();
             mComposing.setLength(0);
+            mSpeculativeCode = 0;
             updateCandidates();
             InputConnection ic = getCurrentInputConnection();
             if (ic != null) {
@@ -405,13 +846,12 @@ public class SoftKeyboard extends InputMethodService
                             // First, tell the editor that it is no longer in the
                             // shift state, since we are consuming this.
                             ic.clearMetaKeyStates(KeyEvent.META_ALT_ON);
-                            keyDownUp(KeyEvent.KEYCODE_A);
-                            keyDownUp(KeyEvent.KEYCODE_N);
-                            keyDownUp(KeyEvent.KEYCODE_D);
-                            keyDownUp(KeyEvent.KEYCODE_R);
-                            keyDownUp(KeyEvent.KEYCODE_O);
-                            keyDownUp(KeyEvent.KEYCODE_I);
-                            keyDownUp(KeyEvent.KEYCODE_D);
+                            // Then commit the word, after anything we were
+                            // composing, all at once.
+                            ic.commitText(mComposing + "android", 1);
+                            mComposing.setLength(0);
+                            updateCandidates();
+                            resetShortcutState();
                             // And we consume this event.
                             return true;
                         }
@@ -523,7 +963,35 @@ public class SoftKeyboard extends InputMethodService
     // Implementation of KeyboardViewListener
 
     public void onKey(int primaryCode, int[] keyCodes) {
+        mTextWriter.finish();
+        final long allocations = ImeStats.threadAllocations();
+        final long allocatedBytes = ImeStats.threadAllocatedBytes();
+        try {
+            handleKey(primaryCode, keyCodes);
+        } finally {
+            ImeStats.endKey(allocations, allocatedBytes);
+        }
+    }
+
+    private void handleKey(int primaryCode, int[] keyCodes) {
+        if (mInputView != null && mInputView.getKeyboard() == mQwertyKeyboard) {
+            mQwertyKeyboard.onKeyTyped(primaryCode);
+        }
+        if (mSpeculativeCode != 0) {
+            if (primaryCode == mSpeculativeCode) {
+                finishSpeculativePress();
+                return;
+            }
+            onSpeculativePressCancelled();
+        }
+        if (mSymbolSearch.isActive() && handleSymbolSearchKey(primaryCode)) {
+            return;
+        }
         if (isWordSeparator(primaryCode)) {
+            if (expandShortcut(primaryCode)) {
+                updateShiftKeyState(getCurrentInputEditorInfo());
+                return;
+            }
             // Handle separator
             if (mComposing.length() > 0) {
                 commitTyped(getCurrentInputConnection());
@@ -531,6 +999,7 @@ public class SoftKeyboard extends InputMethodService
             sendKey(primaryCode);
             updateShiftKeyState(getCurrentInputEditorInfo());
         } else if (primaryCode == Keyboard.KEYCODE_DELETE) {
+            resetShortcutState();
             handleBackspace();
         } else if (primaryCode == Keyboard.KEYCODE_SHIFT) {
             handleShift();
@@ -539,8 +1008,11 @@ public class SoftKeyboard extends InputMethodService
             return;
         } else if (primaryCode == LatinKeyboardView.KEYCODE_OPTIONS) {
             // Show a menu or somethin'
+        } else if (primaryCode == LatinKeyboardView.KEYCODE_SYMBOL_SEARCH) {
+            startSymbolSearch();
         } else if (primaryCode == Keyboard.KEYCODE_MODE_CHANGE
                 && mInputView != null) {
+            ensureSymbolKeyboards();
             Keyboard current = mInputView.getKeyboard();
             if (current == mSymbolsKeyboard || current == mSymbolsShiftedKeyboard) {
                 current = mQwertyKeyboard;
@@ -556,29 +1028,180 @@ public class SoftKeyboard extends InputMethodService
         }
     }
 
+    /**
+     * Switch to the letters and have them search symbols, showing the
+     * symbols found as candidates until the search is ended.
+     */
+    private void startSymbolSearch() {
+        if (mComposing.length() > 0) {
+            commitTyped(getCurrentInputConnection());
+        }
+        resetShortcutState();
+        if (mInputView != null) {
+            mInputView.setKeyboard(mQwertyKeyboard);
+        }
+        mSymbolSearch.start(new SymbolSearch.Listener() {
+            @Override
+            public void onSymbolIndexLoaded() {
+                updateCandidates();
+            }
+        });
+        updateCandidates();
+    }
+
+    private void endSymbolSearch() {
+        mSymbolSearch.stop();
+        updateCandidates();
+    }
+
+    /**
+     * Handle a key while searching symbols: letters edit the query, deleting
+     * past its start, a separator or the search key ends the search.  Returns
+     * false for keys that should act as usual, which also end the search if
+     * they change the keyboard.
+     */
+    private boolean handleSymbolSearchKey(int primaryCode) {
+        final StringBuilder query = mSymbolSearch.getQuery();
+        if (primaryCode == Keyboard.KEYCODE_DELETE) {
+            if (query.length() > 0) {
+                query.setLength(query.length() - 1);
+                updateCandidates();
+            } else {
+                endSymbolSearch();
+            }
+            return true;
+        }
+        if (primaryCode == LatinKeyboardView.KEYCODE_SYMBOL_SEARCH
+                || isWordSeparator(primaryCode)) {
+            endSymbolSearch();
+            return true;
+        }
+        if (primaryCode > 0 && Character.isLetterOrDigit(primaryCode)) {
+            query.append((char) primaryCode);
+            updateCandidates();
+            return true;
+        }
+        if (primaryCode == Keyboard.KEYCODE_MODE_CHANGE
+                || primaryCode == Keyboard.KEYCODE_CANCEL) {
+            endSymbolSearch();
+        }
+        return false;
+    }
+
+    /**
+     * Commit <var>text</var>, from a key or a popup.  Long text, e.g. an
+     * expansion or a paste sent through the keyboard, is written a chunk
+     * at a time by {@link ChunkedTextWriter}, with the candidates only
+     * computed once it is all in.
+     */
     public void onText(CharSequence text) {
         InputConnection ic = getCurrentInputConnection();
         if (ic == null) return;
+        if (text.length() > ChunkedTextWriter.CHUNK_SIZE) {
+            if (mComposing.length() > 0) {
+                commitTyped(ic);
+            }
+            // Computed once the text is in, see mTextWriter's listener.
+            mCandidateUpdates.cancel();
+            mTextWriter.start(ic, text);
+            return;
+        }
+        mTextWriter.finish();
         ic.beginBatchEdit();
         if (mComposing.length() > 0) {
             commitTyped(ic);
         }
-        ic.commitText(text, 0);
+        // The cursor goes after the text, as after text written in chunks.
+        ic.commitText(text, 1);
         ic.endBatchEdit();
         updateShiftKeyState(getCurrentInputEditorInfo());
     }
 
     /**
      * Update the list of available candidates from the current composing
-     * text.  This will need to be filled in by however you are determining
-     * candidates.
+     * text.  They are computed once, before the next frame, however many
+     * times this is called until then: an event often changes the text
+     * several times, and only the last candidates would be seen.
      */
     private void updateCandidates() {
+        updateKeyPriors();
+        // The previous text's shape search is of no use any more.
+        cancelRefinement();
+        if (mTextWriter.isWriting()) {
+            // They are updated once the text is written.
+            mCandidateUpdates.cancel();
+            return;
+        }
+        if (!mCandidateUpdates.schedule()) {
+            ImeStats.increment(ImeStats.CANDIDATES_COALESCED);
+        }
+    }
+
+    /**
+     * Have the letter keys favour the letters likely to follow what is
+     * being composed, see {@link LatinKeyboard#setNextCharacters}.  A letter
+     * shown by a speculative press is left out, as the touch that typed it
+     * is still being resolved.
+     */
+    private void updateKeyPriors() {
+        if (mQwertyKeyboard == null) {
+            return;
+        }
+        final PrefixModel model = mLanguagePack != null && mPredictionOn
+                && !mSymbolSearch.isActive() ? mLanguagePack.getPrefixModel() : null;
+        mQwertyKeyboard.setNextCharacters(model, mComposing,
+                mSpeculativeCode != 0 ? mSpeculativeLength : mComposing.length());
+    }
+
+    /**
+     * Compute the candidates for the current composing text, and show
+     * them.  This will need to be filled in by however you are determining
+     * candidates.
+     */
+    private void computeCandidates() {
+        if (mSymbolSearch.isActive()) {
+            final List<String> list = new ArrayList<String>();
+            mSymbolSearch.getSuggestions(list);
+            setSuggestions(list, false, false);
+            return;
+        }
         if (!mCompletionOn) {
             if (mComposing.length() > 0) {
+                final String context = mLanguagePack != null ? mLanguagePack.getLocale() : null;
+                final boolean known = isKnownWord(mComposing);
+                final List<String> cached = mSuggestionCache.get(mComposing, context);
+                if (cached != null) {
+                    cancelRefinement();
+                    showSuggestions(cached, true, known);
+                    return;
+                }
+
+                final long deadline = System.nanoTime() + SUGGESTION_DEADLINE_NANOS;
                 ArrayList<String> list = new ArrayList<String>();
                 list.add(mComposing.toString());
-                setSuggestions(list, true, true);
+                if (mUserWords != null) {
+                    mUserWords.getCompletions(mComposing, MAX_USER_COMPLETIONS, list);
+                }
+                boolean complete = mLanguagePack != null;
+                if (mLanguagePack != null
+                        && !mLanguagePack.getCompletions(mComposing, MAX_COMPLETIONS,
+                                deadline, list)) {
+                    complete = false;
+                }
+                // The dictionary may know some of the user's words too.
+                for (int i = list.size() - 1; i > 0; i--) {
+                    if (list.indexOf(list.get(i)) < i) {
+                        list.remove(i);
+                    }
+                }
+                mRefiningCacheable = complete;
+                final boolean shapesDone = setSuggestions(list, true, known, deadline);
+                if (shapesDone && complete) {
+                    mSuggestionCache.put(mComposing, context, list);
+                } else if (mLanguagePack != null) {
+                    // Once per keystroke, whichever search the deadline cut short.
+                    mSuggestionDeadlineHits++;
+                }
             } else {
                 setSuggestions(null, false, false);
             }
@@ -587,74 +1210,139 @@ public class SoftKeyboard extends InputMethodService
     
     public void setSuggestions(List<String> suggestions, boolean completions,
             boolean typedWordValid) {
-        if (suggestions != null && suggestions.size() > 0) {
-            setCandidatesViewShown(true);
-        } else if (isExtractViewShown()) {
-            setCandidatesViewShown(true);
+        mRefiningCacheable = false;
+        if (!setSuggestions(suggestions, completions, typedWordValid,
+                System.nanoTime() + SUGGESTION_DEADLINE_NANOS)) {
+            mSuggestionDeadlineHits++;
         }
+    }
+
+    /**
+     * Show <var>suggestions</var> followed by the words that match the
+     * composing text's shape, as many of them as can be found before
+     * <var>deadlineNanos</var>.  If the search is cut short it goes on in
+     * later slices, see {@link #refineSuggestions}, and false is returned.
+     */
+    private boolean setSuggestions(List<String> suggestions, boolean completions,
+            boolean typedWordValid, long deadlineNanos) {
+        cancelRefinement();
         if (mCandidateView != null) {
             if(suggestions!=null) {
                 // suggestions.add("ololo");
                 // suggestions.add("azazaz");
                 // suggestions.add("wtf");}
-                List<String> wordGeomPar=geomSuggestions(mComposing.toString());
+                final String typed = mComposing.toString();
+                List<String> wordGeomPar=geomSuggestions(typed, deadlineNanos);
+                if (PROGRESSIVE_SUGGESTIONS && mShapeMatcher != null
+                        && !mShapeMatcher.isDone()) {
+                    mRefiningSuggestions = new ArrayList<String>(suggestions);
+                    mRefiningCompletions = completions;
+                    mRefiningTypedWordValid = typedWordValid;
+                    mRefiningWord = typed;
+                    mRefiningContext = mLanguagePack.getLocale();
+                    mHandler.post(mRefineSuggestions);
+                }
                 if(wordGeomPar!=null){
-                    suggestions.addAll(wordGeomPar);
+                    for (String word : wordGeomPar) {
+                        if (!suggestions.contains(word)) {
+                            suggestions.add(word);
+                        }
+                    }
                 }
 
             }
+        }
+        showSuggestions(suggestions, completions, typedWordValid);
+        return mRefiningWord == null;
+    }
+
+    private void showSuggestions(List<String> suggestions, boolean completions,
+            boolean typedWordValid) {
+        if (suggestions != null && suggestions.size() > 0) {
+            setCandidatesViewShown(true);
+        } else if (isExtractViewShown()) {
+            setCandidatesViewShown(true);
+        }
+        if (mCandidateView != null) {
             mCandidateView.setSuggestions(suggestions, completions, typedWordValid);
         }
     }
 
-    List<String> geomSuggestions(String typed){
-        char[] cTyped = typed.toLowerCase().toCharArray();
-        List<String> ls = null;
-        JSONObject Keygeometry = null;
-        try {
-             Keygeometry = new JSONObject("{  \"keyboard\": {    \"q\": {      \"x\": \"0.0\",      \"y\": \"0.0\"    },    \"w\": {      \"x\": \"1.0\",      \"y\": \"0.0\"    },    \"e\": {      \"x\": \"2.0\",      \"y\": \"0.0\"    },    \"r\": {      \"x\": \"3.0\",      \"y\": \"0.0\"    },    \"t\": {      \"x\": \"4.0\",      \"y\": \"0.0\"    },    \"y\": {      \"x\": \"5.0\",      \"y\": \"0.0\"    },    \"u\": {      \"x\": \"6.0\",      \"y\": \"0.0\"    },    \"i\": {      \"x\": \"7.0\",      \"y\": \"0.0\"    },    \"o\": {      \"x\": \"8.0\",      \"y\": \"0.0\"    },    \"p\": {      \"x\": \"9.0\",      \"y\": \"0.0\"    },    \"a\": {      \"x\": \"0.5\",      \"y\": \"1.0\"    },    \"s\": {      \"x\": \"1.5\",      \"y\": \"1.0\"    },    \"d\": {      \"x\": \"2.5\",      \"y\": \"1.0\"    },    \"f\": {      \"x\": \"3.5\",      \"y\": \"1.0\"    },    \"g\": {      \"x\": \"4.5\",      \"y\": \"1.0\"    },    \"h\": {      \"x\": \"5.5\",      \"y\": \"1.0\"    },    \"j\": {      \"x\": \"6.5\",      \"y\": \"1.0\"    },    \"k\": {      \"x\": \"7.5\",      \"y\": \"1.0\"    },    \"l\": {      \"x\": \"8.5\",      \"y\": \"1.0\"    },    \"z\": {      \"x\": \"1.5\",      \"y\": \"2.0\"    },    \"x\": {      \"x\": \"2.5\",      \"y\": \"2.0\"    },    \"c\": {      \"x\": \"3.5\",      \"y\": \"2.0\"    },    \"v\": {      \"x\": \"4.5\",      \"y\": \"2.0\"    },    \"b\": {      \"x\": \"5.5\",      \"y\": \"2.0\"    },    \"n\": {      \"x\": \"6.5\",      \"y\": \"2.0\"    },    \"m\": {      \"x\": \"7.5\",      \"y\": \"2.0\"    }  }}");
-        } catch (JSONException e) {
-            e.printStackTrace();
-        }
-        GeometryFactory gf = new GeometryFactory(new PrecisionModel(0.001));
-        JSONObject Keyboard = null;
-        JSONObject key = null;
-        double x = 0;
-        double y = 0;
-        String coord = null;
-        Coordinate[] coordinates =new Coordinate[typed.length()+1];
-        if (typed.length()>3) {
-            for (int i = 0; i < typed.length(); i++) {
-                if (Keygeometry != null) {
-                    try {
-
-                        Keyboard = Keygeometry.getJSONObject("keyboard");
-                        key = Keyboard.getJSONObject(Character.toString(cTyped[i]));
-                        x = key.getDouble("x");
-                        y = key.getDouble("y");
-                        coord += "("+x+","+y+"),";
-                        Coordinate cTemp = new Coordinate(x, y);
-                        coordinates[i] = cTemp;
-                    } catch (JSONException e) {
-                        e.printStackTrace();
-                    }
+    private void cancelRefinement() {
+        mHandler.removeCallbacks(mRefineSuggestions);
+        mRefiningWord = null;
+    }
 
-                }
+    /**
+     * Give the shape search that the last keystroke's deadline cut short
+     * another slice of time, and show what it has found so far.  Slices are
+     * posted one at a time, so keystrokes are handled in between them, and
+     * the next keystroke abandons the search.
+     */
+    private void refineSuggestions() {
+        if (mRefiningWord == null || mCandidateView == null) {
+            return;
+        }
+        mSuggestionRefinements++;
+        final List<String> suggestions = new ArrayList<String>(mRefiningSuggestions);
+        final List<String> shapes = resumeShapeSuggestions(mRefiningWord,
+                System.nanoTime() + SUGGESTION_DEADLINE_NANOS);
+        for (String word : shapes) {
+            if (!suggestions.contains(word)) {
+                suggestions.add(word);
             }
-            coordinates[typed.length()] = coordinates[0];
-            Log.d("Coordinates",coord) ;
-            LinearRing[] empty = new LinearRing[0];
-
-            LinearRing geomWord = gf.createLinearRing(coordinates);
-            Polygon pl = gf.createPolygon(geomWord);
+        }
+        if (mShapeMatcher.isDone()) {
+            if (mRefiningCacheable && mRefiningWord.contentEquals(mComposing)) {
+                mSuggestionCache.put(mRefiningWord, mRefiningContext, suggestions);
+            }
+            mRefiningWord = null;
+        } else {
+            mHandler.post(mRefineSuggestions);
+        }
+        mCandidateView.setSuggestions(suggestions, mRefiningCompletions,
+                mRefiningTypedWordValid);
+    }
 
-            ls = new ArrayList<String>();
-            ls.add("" + pl.getArea());
-            ls.add("" + pl.getLength());
+    /**
+     * Find the dictionary words whose path over the keyboard best matches
+     * the typed word's, see {@link ShapeMatcher}.  Returns null for short
+     * words, words with letters the key table does not know, and while the
+     * language pack is still being loaded in the background.  Only the
+     * matches found before <var>deadlineNanos</var> are returned.
+     */
+    List<String> geomSuggestions(String typed, long deadlineNanos){
+        final GeometryFactory gf = mInitializer.getGeometryFactory();
+        if (mLanguagePack == null || gf == null || typed.length() <= 3) {
+            // Or a refinement would resume the match of an earlier word.
+            if (mShapeMatcher != null) {
+                mShapeMatcher.cancel();
+            }
+            return null;
+        }
+        if (mShapeMatcher == null) {
+            mShapeMatcher = new ShapeMatcher(gf);
         }
+        mShapeMatcher.setLanguagePack(mLanguagePack);
+        mSuggestionSearches++;
+        if (!mShapeMatcher.start(typed)) {
+            return null;
+        }
+        return resumeShapeSuggestions(typed, deadlineNanos);
+    }
 
+    /** Continue the shape search for <var>typed</var> until the deadline. */
+    private List<String> resumeShapeSuggestions(String typed, long deadlineNanos) {
+        final int found = mShapeMatcher.resume(deadlineNanos, mShapeMatches);
+        final boolean capitalized = Character.isUpperCase(typed.charAt(0));
+        List<String> ls = new ArrayList<String>();
+        for (int i = 0; i < found; i++) {
+            final String word = mLanguagePack.getWord(mShapeMatches[i], capitalized);
+            if (!word.equalsIgnoreCase(typed)) {
+                ls.add(word);
+            }
+        }
         return ls;
-
     }
 
 
@@ -679,6 +1367,7 @@ public class SoftKeyboard extends InputMethodService
             return;
         }
         
+        ensureSymbolKeyboards();
         Keyboard currentKeyboard = mInputView.getKeyboard();
         if (mQwertyKeyboard == currentKeyboard) {
             // Alphabet keyboard
@@ -701,6 +1390,10 @@ public class SoftKeyboard extends InputMethodService
                 primaryCode = Character.toUpperCase(primaryCode);
             }
         }
+        if (expandShortcut(primaryCode)) {
+            updateShiftKeyState(getCurrentInputEditorInfo());
+            return;
+        }
         if (isAlphabet(primaryCode) && mPredictionOn) {
             mComposing.append((char) primaryCode);
             getCurrentInputConnection().setComposingText(mComposing, 1);
@@ -712,6 +1405,72 @@ public class SoftKeyboard extends InputMethodService
         }
     }
 
+    /**
+     * Feed <var>c</var>, about to be typed, to the shortcut automaton.  If
+     * it completes a shortcut, replace what was typed of the shortcut with
+     * its expansion, in a single commit when the shortcut was all composing
+     * text, and return true: the character has been dealt with.  Nothing
+     * is expanded in editors that do not take prose, see {@link #onStartInput}.
+     */
+    private boolean expandShortcut(int c) {
+        final TextExpander expander = mTextExpander;
+        if (expander == null || !mShortcutsOn || c <= 0 || c > Character.MAX_VALUE) {
+            mShortcutState = -1;
+            return false;
+        }
+        if (mShortcutState < 0) {
+            mShortcutState = expander.startState();
+        }
+        mShortcutState = expander.next(mShortcutState, (char) c);
+        final int shortcut = expander.getMatch(mShortcutState);
+        final InputConnection ic = getCurrentInputConnection();
+        if (shortcut < 0 || ic == null) {
+            return false;
+        }
+
+        // Everything but the last character of the trigger has been typed,
+        // partly as composing text and the rest, before it, committed.
+        final String trigger = expander.getTrigger(shortcut);
+        final int typed = trigger.length() - 1 - expander.getKeptPrefix(shortcut);
+        final int fromComposing = Math.min(typed, mComposing.length());
+        final int committed = typed - fromComposing;
+        final String expansion = expander.getExpansion(shortcut);
+        if (committed == 0) {
+            mComposing.setLength(mComposing.length() - fromComposing);
+            ic.commitText(mComposing + expansion, 1);
+        } else {
+            // Only delete what we typed, in case the cursor moved since.
+            final String before = trigger.substring(trigger.length() - 1 - typed,
+                    trigger.length() - 1 - fromComposing);
+            ic.beginBatchEdit();
+            if (fromComposing > 0) {
+                ic.setComposingText("", 1);
+            }
+            final CharSequence text = ic.getTextBeforeCursor(committed, 0);
+            if (text == null || !before.contentEquals(text)) {
+                if (fromComposing > 0) {
+                    ic.setComposingText(mComposing, 1);
+                }
+                ic.endBatchEdit();
+                mShortcutState = -1;
+                return false;
+            }
+            ic.deleteSurroundingText(committed, 0);
+            ic.commitText(expansion, 1);
+            ic.endBatchEdit();
+        }
+        mComposing.setLength(0);
+        mShortcutState = -1;
+        mShortcutExpansions++;
+        updateCandidates();
+        return true;
+    }
+
+    /** Start matching shortcuts afresh, as if at the start of the input. */
+    private void resetShortcutState() {
+        mShortcutState = -1;
+    }
+
     private void handleClose() {
         commitTyped(getCurrentInputConnection());
         requestHideSelf(0);
@@ -742,6 +1501,20 @@ public class SoftKeyboard extends InputMethodService
     }
     
     public void pickSuggestionManually(int index) {
+        // The index is into the candidates as they should be shown now.
+        mTextWriter.finish();
+        mCandidateUpdates.flush();
+        resetShortcutState();
+        if (mSymbolSearch.isActive()) {
+            // The first candidate is the query itself; the others are
+            // symbols, and the search goes on so that more can be picked.
+            if (index == 0) {
+                endSymbolSearch();
+            } else if (index > 0 && index < mCandidateView.mSuggestions.size()) {
+                getCurrentInputConnection().commitText(mCandidateView.mSuggestions.get(index), 1);
+            }
+            return;
+        }
         if (mCompletionOn && mCompletions != null && index >= 0
                 && index < mCompletions.length) {
             CompletionInfo ci = mCompletions[index];
@@ -776,9 +1549,179 @@ public class SoftKeyboard extends InputMethodService
     public void swipeUp() {
     }
     
+    /**
+     * With speculative presses on, show the letter of a touched key in the
+     * composing text, with its candidates, straight away rather than when
+     * the finger lifts.  The {@link #onKey} that follows only finishes
+     * typing it, or undoes it first if it is for another key; the view
+     * tells us when no key follows, see {@link #onSpeculativePressCancelled}.
+     * Only letters that would simply be composed are shown early: a key
+     * that commits, completes a shortcut or changes keyboards waits.
+     */
     public void onPress(int primaryCode) {
+        mTextWriter.finish();
+        onSpeculativePressCancelled();
+        if (mInputView == null || !mInputView.isSpeculativePress() || !mPredictionOn
+                || mSymbolSearch.isActive() || !isInputViewShown()) {
+            return;
+        }
+        final int c = mInputView.isShifted() ? Character.toUpperCase(primaryCode) : primaryCode;
+        if (c <= 0 || c > Character.MAX_VALUE || !isAlphabet(c) || completesShortcut(c)) {
+            return;
+        }
+        final InputConnection ic = getCurrentInputConnection();
+        if (ic == null) {
+            return;
+        }
+        mSpeculativeCode = primaryCode;
+        mSpeculativeChar = (char) c;
+        mSpeculativeLength = mComposing.length();
+        mSpeculativePresses++;
+        mComposing.append(mSpeculativeChar);
+        ic.setComposingText(mComposing, 1);
+        updateCandidates();
+    }
+
+    /** Whether typing <var>c</var> now would expand a shortcut. */
+    private boolean completesShortcut(int c) {
+        final TextExpander expander = mTextExpander;
+        if (expander == null || !mShortcutsOn) {
+            return false;
+        }
+        final int state = mShortcutState < 0 ? expander.startState() : mShortcutState;
+        return expander.getMatch(expander.next(state, (char) c)) >= 0;
+    }
+
+    /**
+     * The key shown by {@link #onPress} was typed: it is composed and has
+     * its candidates, so only the bookkeeping of a typed letter is left.
+     */
+    private void finishSpeculativePress() {
+        mSpeculativeCode = 0;
+        if (mTextExpander != null && mShortcutsOn) {
+            if (mShortcutState < 0) {
+                mShortcutState = mTextExpander.startState();
+            }
+            mShortcutState = mTextExpander.next(mShortcutState, mSpeculativeChar);
+        }
+        updateKeyPriors();
+        updateShiftKeyState(getCurrentInputEditorInfo());
+    }
+
+    /** Take back the letter shown by {@link #onPress}, if it is still pending. */
+    @Override
+    public void onSpeculativePressCancelled() {
+        if (mSpeculativeCode == 0) {
+            return;
+        }
+        mSpeculativeCode = 0;
+        mSpeculativePressesUndone++;
+        mComposing.setLength(mSpeculativeLength);
+        final InputConnection ic = getCurrentInputConnection();
+        if (ic != null) {
+            ic.setComposingText(mComposing, 1);
+        }
+        updateCandidates();
     }
     
     public void onRelease(int primaryCode) {
     }
+
+    @Override protected void dump(FileDescriptor fd, PrintWriter fout, String[] args) {
+        super.dump(fd, fout, args);
+        mInitializer.dump(fout);
+        mLanguagePacks.dump(fout);
+        mSnapshot.dump(fout);
+        ImeStats.dump(fout);
+        mSuggestionCache.dump(fout);
+        fout.println("Known words: lexicon="
+                + (mLanguagePack != null ? mLanguagePack.getWordFilter() : null)
+                + " user=" + mUserWords);
+        mUserLexicon.dump(fout);
+        fout.println("Shortcuts: " + (mTextExpander != null ? mTextExpander.size() : 0)
+                + " expanded=" + mShortcutExpansions);
+        fout.println("Speculative presses: "
+                + (mInputView != null && mInputView.isSpeculativePress() ? "on" : "off")
+                + " shown=" + mSpeculativePresses + " undone=" + mSpeculativePressesUndone);
+        fout.println("Suggestions:");
+        fout.println("  searches=" + mSuggestionSearches
+                + " deadlineHits=" + mSuggestionDeadlineHits
+                + " refinements=" + mSuggestionRefinements);
+        if (mShapeMatcher != null) {
+            mShapeMatcher.dump(fout);
+        }
+        if (Arrays.asList(args).contains("--keyboard-benchmark")) {
+            benchmarkKeyboards(fout);
+        }
+        final int userWord = Arrays.asList(args).indexOf("--user-word");
+        if (userWord >= 0 && userWord + 2 < args.length) {
+            editDebugWords(fout, args[userWord + 1], args[userWord + 2]);
+        }
+    }
+
+    /**
+     * Add or remove a word of the in-memory word source, for
+     * <code>adb shell dumpsys input_method --user-word add|remove WORD</code>:
+     * the merge shows in the user lexicon of a later dump.
+     */
+    private void editDebugWords(PrintWriter fout, String action, String word) {
+        if (mDebugWords == null) {
+            fout.println("User words can only be edited in debuggable builds");
+            return;
+        }
+        if ("add".equals(action)) {
+            if (mDebugWords.find(word) < 0) {
+                mDebugWords.put(++mDebugWordRows, word);
+            }
+            fout.println("Added user word " + word);
+        } else if ("remove".equals(action)) {
+            final long rowId = mDebugWords.find(word);
+            if (rowId >= 0) {
+                mDebugWords.delete(rowId);
+            }
+            fout.println((rowId >= 0 ? "Removed user word " : "No user word ") + word);
+        } else {
+            fout.println("Unknown --user-word action " + action);
+        }
+    }
+
+    /**
+     * Time building each keyboard from its compiled layout against parsing
+     * its XML, for <code>adb shell dumpsys input_method --keyboard-benchmark</code>:
+     * the keyboard classes only run on a device.  The compiled layout is
+     * read afresh every time, as the XML is parsed, and these builds are
+     * not counted in {@link ImeStats}.
+     */
+    private void benchmarkKeyboards(PrintWriter fout) {
+        final int[][] layouts = {
+            { R.raw.layout_qwerty, R.xml.qwerty },
+            { R.raw.layout_symbols, R.xml.symbols },
+            { R.raw.layout_symbols_shift, R.xml.symbols_shift },
+        };
+        final int rounds = 20;
+        fout.println("Keyboard builds, average of " + rounds + " after warming up:");
+        for (int[] layout : layouts) {
+            long compiledNanos = 0;
+            long xmlNanos = 0;
+            for (int round = -3; round < rounds; round++) {
+                final long start = System.nanoTime();
+                new LatinKeyboard(this, layout[1]);
+                final long middle = System.nanoTime();
+                try {
+                    LatinKeyboard.buildUncached(this, layout[0]);
+                } catch (IOException e) {
+                    fout.println("  cannot read compiled layout: " + e);
+                    return;
+                }
+                final long end = System.nanoTime();
+                if (round >= 0) {
+                    xmlNanos += middle - start;
+                    compiledNanos += end - middle;
+                }
+            }
+            fout.println("  " + getResources().getResourceEntryName(layout[1])
+                    + ": xml=" + xmlNanos / rounds / 1000 + "us"
+                    + " compiled=" + compiledNanos / rounds / 1000 + "us");
+        }
+    }
 }
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.softkeyboard;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.service.textservice.SpellCheckerService;
+import android.util.LruCache;
+import android.view.textservice.SentenceSuggestionsInfo;
+import android.view.textservice.SuggestionsInfo;
+import android.view.textservice.TextInfo;
+
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A spell checker built on the keyboard's suggestion engine.  It runs in the
+ * keyboard's process and takes its {@link LanguagePack}s from the same
+ * {@link LanguagePacks} cache, so the keyboard and the spell checker share
+ * one copy of each lexicon, and a pack loaded for either is there for the
+ * other.  A word is checked in constant time by the pack's filter of known
+ * words, confirmed by a binary search; a misspelled word gets the
+ * suggestions the keyboard would give, the words whose key paths look most
+ * like its own, then completions of its beginning.
+ *
+ * <p>Batches are checked in one pass: the pack is looked up once per call,
+ * a word repeated in the batch is checked once, and the suggestions of
+ * misspelled words are remembered by the session for later calls, as long
+ * documents are checked a paragraph at a time and repeat their mistakes.
+ * They are not shared with the keyboard's {@link SuggestionCache}: that
+ * one holds the candidates for a composing prefix, completions first,
+ * while these are corrections of a whole word, shapes first, so neither
+ * could answer the other's lookups.
+ */
+public class SoftSpellChecker extends SpellCheckerService {
+
+    @Override
+    public Session createSession() {
+        return new SoftSpellCheckerSession(LanguagePacks.getInstance(this));
+    }
+
+    private static final class SoftSpellCheckerSession extends Session {
+        /** Shortest word that is matched by shape; shorter ones are too ambiguous. */
+        private static final int MIN_SHAPE_LENGTH = 3;
+        /** Misspelled words whose suggestions are remembered. */
+        private static final int SUGGESTION_CACHE_SIZE = 256;
+        /** Time given to the shape search of one word. */
+        private static final long SHAPE_DEADLINE_NANOS = 4 * 1000 * 1000;
+
+        private static final String[] NO_SUGGESTIONS = new String[0];
+
+        private final LanguagePacks mLanguagePacks;
+        private final LruCache<String, String[]> mSuggestionCache =
+                new LruCache<String, String[]>(SUGGESTION_CACHE_SIZE);
+        /** Words checked in the current batch; reused from batch to batch. */
+        private final Map<String, SuggestionsInfo> mBatch = new HashMap<String, SuggestionsInfo>();
+        private final List<String> mCompletions = new ArrayList<String>();
+        private String mLocale;
+        private ShapeMatcher mShapeMatcher;
+        private int[] mShapeMatches = new int[0];
+
+        SoftSpellCheckerSession(LanguagePacks languagePacks) {
+            mLanguagePacks = languagePacks;
+        }
+
+        @Override
+        public void onCreate() {
+            final String locale = getLocale();
+            mLocale = locale == null || locale.length() == 0
+                    ? LanguagePack.DEFAULT_LOCALE : locale;
+        }
+
+        @Override
+        public synchronized SuggestionsInfo onGetSuggestions(TextInfo textInfo,
+                int suggestionsLimit) {
+            final LanguagePack pack = mLanguagePacks.getBlocking(mLocale);
+            return check(pack, textInfo.getText(), suggestionsLimit,
+                    textInfo.getCookie(), textInfo.getSequence());
+        }
+
+        @Override
+        public synchronized SuggestionsInfo[] onGetSuggestionsMultiple(TextInfo[] textInfos,
+                int suggestionsLimit, boolean sequentialWords) {
+            final LanguagePack pack = mLanguagePacks.getBlocking(mLocale);
+            final SuggestionsInfo[] results = new SuggestionsInfo[textInfos.length];
+            for (int i = 0; i < textInfos.length; i++) {
+                results[i] = checkInBatch(pack, textInfos[i].getText(), suggestionsLimit,
+                        textInfos[i].getCookie(), textInfos[i].getSequence());
+            }
+            mBatch.clear();
+            return results;
+        }
+
+        /**
+         * Check every word of every sentence.  A word is a run of characters
+         * that are neither white space nor separators of the language.  Only
+         * called from Jelly Bean on, which has the classes it uses.
+         */
+        @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+        @Override
+        public synchronized SentenceSuggestionsInfo[] onGetSentenceSuggestionsMultiple(
+                TextInfo[] textInfos, int suggestionsLimit) {
+            final LanguagePack pack = mLanguagePacks.getBlocking(mLocale);
+            final String separators = pack != null ? pack.getWordSeparators() : " ";
+            final SentenceSuggestionsInfo[] results = new SentenceSuggestionsInfo[textInfos.length];
+            final List<SuggestionsInfo> words = new ArrayList<SuggestionsInfo>();
+            final List<Integer> offsets = new ArrayList<Integer>();
+            for (int t = 0; t < textInfos.length; t++) {
+                final TextInfo textInfo = textInfos[t];
+                final String text = textInfo.getText();
+                words.clear();
+                offsets.clear();
+                int start = -1;
+                for (int i = 0; i <= text.length(); i++) {
+                    final boolean inWord = i < text.length()
+                            && !isSeparator(text.charAt(i), separators);
+                    if (inWord && start < 0) {
+                        start = i;
+                    } else if (!inWord && start >= 0) {
+                        words.add(checkInBatch(pack, text.substring(start, i), suggestionsLimit,
+                                textInfo.getCookie(), textInfo.getSequence()));
+                        offsets.add(start);
+                        offsets.add(i - start);
+                        start = -1;
+                    }
+                }
+                final int[] wordOffsets = new int[words.size()];
+                final int[] wordLengths = new int[words.size()];
+                for (int w = 0; w < wordOffsets.length; w++) {
+                    wordOffsets[w] = offsets.get(w * 2);
+                    wordLengths[w] = offsets.get(w * 2 + 1);
+                }
+                results[t] = new SentenceSuggestionsInfo(
+                        words.toArray(new SuggestionsInfo[words.size()]),
+                        wordOffsets, wordLengths);
+            }
+            mBatch.clear();
+            return results;
+        }
+
+        private static boolean isSeparator(char c, String separators) {
+            return Character.isWhitespace(c) || separators.indexOf(c) >= 0;
+        }
+
+        /** {@link #check}, once per distinct word of the current batch. */
+        private SuggestionsInfo checkInBatch(LanguagePack pack, String word, int limit,
+                int cookie, int sequence) {
+            final SuggestionsInfo checked = mBatch.get(word);
+            if (checked != null) {
+                return copy(checked, cookie, sequence);
+            }
+            final SuggestionsInfo info = check(pack, word, limit, cookie, sequence);
+            mBatch.put(word, info);
+            return info;
+        }
+
+        private static SuggestionsInfo copy(SuggestionsInfo info, int cookie, int sequence) {
+            final String[] suggestions = new String[info.getSuggestionsCount()];
+            for (int i = 0; i < suggestions.length; i++) {
+                suggestions[i] = info.getSuggestionAt(i);
+            }
+            return new SuggestionsInfo(info.getSuggestionsAttributes(), suggestions,
+                    cookie, sequence);
+        }
+
+        private SuggestionsInfo check(LanguagePack pack, String word, int limit,
+                int cookie, int sequence) {
+            if (pack == null || !isCheckable(word) || pack.contains(word)
+                    || pack.contains(word.toLowerCase(Locale.ROOT))) {
+                return new SuggestionsInfo(SuggestionsInfo.RESULT_ATTR_IN_THE_DICTIONARY,
+                        NO_SUGGESTIONS, cookie, sequence);
+            }
+            final String[] suggestions = limit > 0
+                    ? getSuggestions(pack, word, limit) : NO_SUGGESTIONS;
+            int attributes = SuggestionsInfo.RESULT_ATTR_LOOKS_LIKE_TYPO;
+            if (suggestions.length > 0) {
+                attributes |= SuggestionsInfo.RESULT_ATTR_HAS_RECOMMENDED_SUGGESTIONS;
+            }
+            return new SuggestionsInfo(attributes, suggestions, cookie, sequence);
+        }
+
+        /**
+         * Only words of letters, perhaps with apostrophes or hyphens inside,
+         * are checked: numbers, addresses and the like are left alone, as
+         * are words in capitals, which are mostly acronyms.
+         */
+        private static boolean isCheckable(String word) {
+            boolean lowerCase = false;
+            for (int i = 0; i < word.length(); i++) {
+                final char c = word.charAt(i);
+                if (Character.isLowerCase(c)) {
+                    lowerCase = true;
+                } else if (!Character.isLetter(c)
+                        && !((c == '\'' || c == '-') && i > 0 && i < word.length() - 1)) {
+                    return false;
+                }
+            }
+            return lowerCase;
+        }
+
+        private String[] getSuggestions(LanguagePack pack, String word, int limit) {
+            final String key = pack.getLocale() + '\t' + word + '\t' + limit;
+            String[] suggestions = mSuggestionCache.get(key);
+            if (suggestions != null) {
+                return suggestions;
+            }
+            final boolean capitalized = Character.isUpperCase(word.charAt(0));
+            final List<String> found = new ArrayList<String>();
+
+            // The words the keyboard would offer for these keys, by shape.
+            if (word.length() >= MIN_SHAPE_LENGTH) {
+                if (mShapeMatcher == null) {
+                    mShapeMatcher = new ShapeMatcher(new GeometryFactory());
+                }
+                if (mShapeMatches.length < limit) {
+                    mShapeMatches = new int[limit];
+                }
+                mShapeMatcher.setLanguagePack(pack);
+                if (mShapeMatcher.start(word)) {
+                    final int count = mShapeMatcher.resume(
+                            System.nanoTime() + SHAPE_DEADLINE_NANOS, mShapeMatches);
+                    for (int i = 0; i < count && found.size() < limit; i++) {
+                        final String match = pack.getWord(mShapeMatches[i], capitalized);
+                        if (!match.equalsIgnoreCase(word)) {
+                            found.add(match);
+                        }
+                    }
+                }
+            }
+
+            // Then words that start as it does, in case it was cut short.
+            if (found.size() < limit && word.length() > 1) {
+                mCompletions.clear();
+                pack.getCompletions(word.substring(0, word.length() - 1), limit,
+                        System.nanoTime() + SHAPE_DEADLINE_NANOS, mCompletions);
+                for (String completion : mCompletions) {
+                    if (found.size() >= limit) break;
+                    if (!found.contains(completion) && !completion.equalsIgnoreCase(word)) {
+                        found.add(completion);
+                    }
+                }
+            }
+
+            suggestions = found.toArray(new String[found.size()]);
+            mSuggestionCache.put(key, suggestions);
+            return suggestions;
+        }
+    }
+}
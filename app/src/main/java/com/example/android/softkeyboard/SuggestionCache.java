@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.softkeyboard;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A small least recently used cache of the ranked suggestions for a
+ * composing text, so that backspacing to a prefix we have just seen, or
+ * typing a word again, shows its suggestions without searching.
+ *
+ * <p>Entries are keyed by the composing text and a context string, such as
+ * the locale of the language pack that produced them.  Looking an entry up
+ * hashes the text as it is, without building a string or allocating.  The
+ * owner must {@link #clear} the cache whenever suggestions for the same text
+ * could change.
+ *
+ * <p>Not thread safe; the service uses it from the main thread.
+ */
+final class SuggestionCache {
+
+    private final int mCapacity;
+    private final LinkedHashMap<Key, List<String>> mEntries;
+    /** Reused to look entries up. */
+    private final Key mProbe = new Key(new char[16], 0, null, 0);
+
+    private long mHits;
+    private long mMisses;
+
+    SuggestionCache(int capacity) {
+        mCapacity = capacity;
+        mEntries = new LinkedHashMap<Key, List<String>>(capacity * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, List<String>> eldest) {
+                return size() > mCapacity;
+            }
+        };
+    }
+
+    /**
+     * The suggestions cached for <var>text</var> in <var>context</var>, or
+     * null.  The list must not be modified.
+     */
+    List<String> get(CharSequence text, String context) {
+        final int length = text.length();
+        if (mProbe.mChars.length < length) {
+            mProbe.mChars = new char[Math.max(length, mProbe.mChars.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            mProbe.mChars[i] = text.charAt(i);
+        }
+        mProbe.mLength = length;
+        mProbe.mContext = context;
+        mProbe.mHash = hash(mProbe.mChars, length, context);
+        final List<String> suggestions = mEntries.get(mProbe);
+        mProbe.mContext = null;
+        if (suggestions != null) {
+            mHits++;
+        } else {
+            mMisses++;
+        }
+        return suggestions;
+    }
+
+    /** Cache a copy of <var>suggestions</var> for <var>text</var> in <var>context</var>. */
+    void put(CharSequence text, String context, List<String> suggestions) {
+        final int length = text.length();
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = text.charAt(i);
+        }
+        mEntries.put(new Key(chars, length, context, hash(chars, length, context)),
+                new ArrayList<String>(suggestions));
+    }
+
+    void clear() {
+        mEntries.clear();
+    }
+
+    /** Rough heap footprint of the entries, in bytes. */
+    int estimateSizeBytes() {
+        int size = 0;
+        for (Map.Entry<Key, List<String>> entry : mEntries.entrySet()) {
+            size += 96 + 2 * entry.getKey().mChars.length;
+            for (String suggestion : entry.getValue()) {
+                size += 40 + 2 * suggestion.length();
+            }
+        }
+        return size;
+    }
+
+    private static int hash(char[] chars, int length, String context) {
+        int hash = context != null ? context.hashCode() : 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        return hash;
+    }
+
+    void dump(PrintWriter pw) {
+        pw.println("Suggestion cache:");
+        pw.println("  entries=" + mEntries.size() + "/" + mCapacity
+                + " hits=" + mHits + " misses=" + mMisses);
+    }
+
+    private static final class Key {
+        char[] mChars;
+        int mLength;
+        String mContext;
+        int mHash;
+
+        Key(char[] chars, int length, String context, int hash) {
+            mChars = chars;
+            mLength = length;
+            mContext = context;
+            mHash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            final Key other = (Key) o;
+            if (mHash != other.mHash || mLength != other.mLength) return false;
+            if (mContext == null ? other.mContext != null : !mContext.equals(other.mContext)) {
+                return false;
+            }
+            for (int i = 0; i < mLength; i++) {
+                if (mChars[i] != other.mChars[i]) return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.softkeyboard;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Finds Unicode symbols and emoji by the words of their names, e.g. "hea"
+ * finds the hearts, the heavy check mark and the smiling face with heart
+ * eyes.
+ *
+ * <p>The index is a single buffer, normally mapped from the APK, read in
+ * place: searching neither loads it onto the heap nor allocates.  Its
+ * layout, all big endian, is
+ * <pre>
+ * int magic, int version, int symbol count, int keyword count,
+ * int posting count, int keyword bytes, int symbol chars,
+ * int[keyword count + 1] offsets of the keywords in the keyword bytes,
+ * int[keyword count + 1] offsets of their postings,
+ * int[posting count] postings: for each keyword, the ids of the symbols
+ *     it appears in, ascending,
+ * int[symbol count + 1] offsets of the symbols in the symbol chars,
+ * byte[keyword bytes] the keywords, lower case ASCII, sorted,
+ * char[symbol chars] the symbols, UTF-16
+ * </pre>
+ * Symbol ids are ranks: the builder numbers the most wanted symbols first.
+ * The index is written by the symbols tool of the tools module.
+ */
+final class SymbolIndex {
+
+    static final int MAGIC = 0x53594d49; // "SYMI"
+    static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 7 * 4;
+
+    private final ByteBuffer mBuffer;
+    private final int mSymbolCount;
+    private final int mKeywordCount;
+    private final int mKeywordOffsets;
+    private final int mPostingOffsets;
+    private final int mPostings;
+    private final int mSymbolOffsets;
+    private final int mKeywords;
+    private final int mSymbols;
+
+    private SymbolIndex(ByteBuffer buffer) throws IOException {
+        mBuffer = buffer.order(ByteOrder.BIG_ENDIAN);
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a symbol index of version " + VERSION);
+        }
+        mSymbolCount = buffer.getInt(8);
+        mKeywordCount = buffer.getInt(12);
+        final int postingCount = buffer.getInt(16);
+        final int keywordBytes = buffer.getInt(20);
+        final int symbolChars = buffer.getInt(24);
+        mKeywordOffsets = HEADER_SIZE;
+        mPostingOffsets = mKeywordOffsets + (mKeywordCount + 1) * 4;
+        mPostings = mPostingOffsets + (mKeywordCount + 1) * 4;
+        mSymbolOffsets = mPostings + postingCount * 4;
+        mKeywords = mSymbolOffsets + (mSymbolCount + 1) * 4;
+        mSymbols = mKeywords + keywordBytes;
+        if (mSymbols + symbolChars * 2 != buffer.capacity()) {
+            throw new IOException("Truncated symbol index");
+        }
+    }
+
+    /** Read the index in <var>buffer</var>, which must hold it all and nothing else. */
+    static SymbolIndex wrap(ByteBuffer buffer) throws IOException {
+        return new SymbolIndex(buffer);
+    }
+
+    int size() {
+        return mSymbolCount;
+    }
+
+    /** Size of the index, in bytes, whether mapped or on the heap. */
+    int getByteSize() {
+        return mBuffer.capacity();
+    }
+
+    String getSymbol(int id) {
+        final int start = mBuffer.getInt(mSymbolOffsets + id * 4);
+        final int end = mBuffer.getInt(mSymbolOffsets + (id + 1) * 4);
+        final char[] chars = new char[end - start];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = mBuffer.getChar(mSymbols + (start + i) * 2);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Find the symbols with a name word starting with <var>query</var>,
+     * ignoring case, and write the ids of the best of them to
+     * <var>outIds</var>: those with a word equal to the query first, then
+     * by rank.  Returns how many were written.
+     */
+    int search(CharSequence query, int[] outIds) {
+        if (query.length() == 0) return 0;
+        int first = lowerBound(query);
+        int count = 0;
+        // A keyword equal to the query sorts first among those it prefixes.
+        if (first < mKeywordCount && compareKeyword(first, query, false) == 0) {
+            count = collect(first, 0, outIds, 0);
+            first++;
+        }
+        final int exactCount = count;
+        for (int k = first; k < mKeywordCount && compareKeyword(k, query, true) == 0; k++) {
+            count = collect(k, exactCount, outIds, count);
+        }
+        return count;
+    }
+
+    /**
+     * Merge the postings of keyword <var>k</var> into
+     * <code>outIds[from, count)</code>, which is kept sorted and no longer
+     * than <var>outIds</var> allows, skipping ids already in
+     * <code>outIds[0, count)</code>.  Returns the new count.
+     */
+    private int collect(int k, int from, int[] outIds, int count) {
+        final int capacity = outIds.length;
+        if (from >= capacity) return count;
+        final int start = mBuffer.getInt(mPostingOffsets + k * 4);
+        final int end = mBuffer.getInt(mPostingOffsets + (k + 1) * 4);
+        for (int p = start; p < end; p++) {
+            final int id = mBuffer.getInt(mPostings + p * 4);
+            if (count == capacity && id >= outIds[capacity - 1]) {
+                // Postings ascend, so the rest rank lower still.
+                break;
+            }
+            if (contains(outIds, count, id)) continue;
+            // Insert, dropping the last id if full.
+            int pos = count < capacity ? count++ : capacity - 1;
+            while (pos > from && outIds[pos - 1] > id) {
+                outIds[pos] = outIds[pos - 1];
+                pos--;
+            }
+            outIds[pos] = id;
+        }
+        return count;
+    }
+
+    private static boolean contains(int[] ids, int count, int id) {
+        for (int i = 0; i < count; i++) {
+            if (ids[i] == id) return true;
+        }
+        return false;
+    }
+
+    /** Index of the first keyword not less than <var>query</var>. */
+    private int lowerBound(CharSequence query) {
+        int low = 0;
+        int high = mKeywordCount;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (compareKeyword(mid, query, false) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Compare keyword <var>k</var> with <var>query</var>, lower cased; as a
+     * prefix only if <var>prefix</var>, so that a longer keyword starting
+     * with the query compares equal.
+     */
+    private int compareKeyword(int k, CharSequence query, boolean prefix) {
+        final int start = mKeywords + mBuffer.getInt(mKeywordOffsets + k * 4);
+        final int length = mKeywords + mBuffer.getInt(mKeywordOffsets + (k + 1) * 4) - start;
+        final int queryLength = query.length();
+        final int common = Math.min(length, queryLength);
+        for (int i = 0; i < common; i++) {
+            final int diff = (mBuffer.get(start + i) & 0xff)
+                    - Character.toLowerCase(query.charAt(i));
+            if (diff != 0) return diff;
+        }
+        if (prefix && length >= queryLength) return 0;
+        return length - queryLength;
+    }
+
+    /**
+     * Write an index of <var>symbols</var>, given in rank order, found by
+     * the sorted lower case ASCII <var>keywords</var>, each with the
+     * ascending ids of its symbols.
+     */
+    static void write(OutputStream stream, List<String> symbols,
+            SortedMap<String, List<Integer>> keywords) throws IOException {
+        int postingCount = 0;
+        int keywordBytes = 0;
+        for (Map.Entry<String, List<Integer>> entry : keywords.entrySet()) {
+            postingCount += entry.getValue().size();
+            keywordBytes += entry.getKey().length();
+        }
+        int symbolChars = 0;
+        for (String symbol : symbols) {
+            symbolChars += symbol.length();
+        }
+
+        final DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(symbols.size());
+        out.writeInt(keywords.size());
+        out.writeInt(postingCount);
+        out.writeInt(keywordBytes);
+        out.writeInt(symbolChars);
+        int offset = 0;
+        for (String keyword : keywords.keySet()) {
+            out.writeInt(offset);
+            offset += keyword.length();
+        }
+        out.writeInt(offset);
+        offset = 0;
+        for (List<Integer> ids : keywords.values()) {
+            out.writeInt(offset);
+            offset += ids.size();
+        }
+        out.writeInt(offset);
+        for (List<Integer> ids : keywords.values()) {
+            for (int id : ids) {
+                out.writeInt(id);
+            }
+        }
+        offset = 0;
+        for (String symbol : symbols) {
+            out.writeInt(offset);
+            offset += symbol.length();
+        }
+        out.writeInt(offset);
+        for (String keyword : keywords.keySet()) {
+            out.writeBytes(keyword);
+        }
+        for (String symbol : symbols) {
+            out.writeChars(symbol);
+        }
+        out.flush();
+    }
+}
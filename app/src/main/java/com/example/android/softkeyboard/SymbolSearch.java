@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.softkeyboard;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.Log;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The symbol search mode of the keyboard: while it is on, letters typed go
+ * to a query instead of the editor, and the candidates are the symbols
+ * found by it in the {@link SymbolIndex}.
+ *
+ * <p>The index is only opened the first time search is turned on, on the
+ * {@link BackgroundExecutor}.  It is stored uncompressed in the APK, so it
+ * is mapped rather than read: it is paged in as searches touch it and never
+ * copied onto the heap.
+ *
+ * <p>The index is built from the names of a recent Unicode version, so it
+ * has symbols the device's fonts may lack.  Those are not offered: when
+ * the index is first opened, still in the background, every symbol is
+ * drawn off screen, and those that come out blank or the same as a code
+ * point no font has, i.e. as the font's missing glyph box, are left out.
+ * What was found is kept when the index is let go of, as the fonts do not
+ * change.
+ */
+final class SymbolSearch {
+    private static final String TAG = "SymbolSearch";
+
+    /** How many symbols are offered for a query. */
+    private static final int MAX_RESULTS = 24;
+    /** How many are looked up, to make up for those the fonts cannot draw. */
+    private static final int MAX_FOUND = MAX_RESULTS * 2;
+    /** Size in pixels symbols are drawn at to tell whether a font has them. */
+    private static final int GLYPH_CHECK_SIZE = 32;
+    /** A private use code point, U+10FFFD, which no font draws. */
+    private static final String MISSING_GLYPH = "\uDBFF\uDFFD";
+
+    interface Listener {
+        /** Called on the main thread once the index can be searched. */
+        void onSymbolIndexLoaded();
+    }
+
+    private final Resources mResources;
+    private SymbolIndex mIndex;
+    private boolean mLoading;
+    private boolean mActive;
+    private final StringBuilder mQuery = new StringBuilder();
+    private final int[] mResults = new int[MAX_FOUND];
+    /** The ids of the symbols the fonts can draw; null until the index is opened. */
+    private BitSet mDrawable;
+
+    SymbolSearch(Resources res) {
+        mResources = res;
+    }
+
+    boolean isActive() {
+        return mActive;
+    }
+
+    /** Turn search on with an empty query, opening the index if needed. */
+    void start(final Listener listener) {
+        mActive = true;
+        mQuery.setLength(0);
+        if (mIndex != null || mLoading) {
+            return;
+        }
+        mLoading = true;
+        final BitSet knownDrawable = mDrawable;
+        BackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                SymbolIndex index = null;
+                try {
+                    index = SymbolIndex.wrap(map(mResources, R.raw.symbol_index));
+                } catch (IOException e) {
+                    Log.e(TAG, "Cannot open the symbol index", e);
+                }
+                final SymbolIndex loaded = index;
+                final BitSet drawable = knownDrawable != null || index == null
+                        ? knownDrawable : findDrawable(index);
+                BackgroundExecutor.postToMain(new Runnable() {
+                    @Override
+                    public void run() {
+                        mIndex = loaded;
+                        mDrawable = drawable;
+                        mLoading = false;
+                        if (loaded != null && mActive) {
+                            listener.onSymbolIndexLoaded();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    void stop() {
+        mActive = false;
+        mQuery.setLength(0);
+    }
+
+    /**
+     * Let go of the index unless a search is using it; it is opened again
+     * by the next {@link #start}.  Returns the bytes released.
+     */
+    int trimMemory() {
+        if (mActive || mIndex == null) {
+            return 0;
+        }
+        final int size = mIndex.getByteSize();
+        mIndex = null;
+        return size;
+    }
+
+    StringBuilder getQuery() {
+        return mQuery;
+    }
+
+    /**
+     * Append the query, then the symbols it finds, to <var>out</var>.  The
+     * query alone is appended while the index is being opened.
+     */
+    void getSuggestions(List<String> out) {
+        out.add(mQuery.toString());
+        if (mIndex == null) {
+            return;
+        }
+        final int found = mIndex.search(mQuery, mResults);
+        int offered = 0;
+        for (int i = 0; i < found && offered < MAX_RESULTS; i++) {
+            if (mDrawable.get(mResults[i])) {
+                out.add(mIndex.getSymbol(mResults[i]));
+                offered++;
+            }
+        }
+    }
+
+    /**
+     * The ids of the symbols of <var>index</var> the fonts have a glyph
+     * for; Paint.hasGlyph would tell, but only from API 23.  Draws every
+     * symbol, so call it off the main thread.
+     */
+    private static BitSet findDrawable(SymbolIndex index) {
+        final long start = System.nanoTime();
+        final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setTextSize(GLYPH_CHECK_SIZE);
+        paint.setColor(Color.BLACK);
+        final Bitmap missing = drawGlyph(paint, MISSING_GLYPH, null);
+        final Bitmap blank = drawGlyph(paint, "", null);
+        final Bitmap glyph = drawGlyph(paint, "", null);
+        final BitSet drawable = new BitSet(index.size());
+        for (int id = 0; id < index.size(); id++) {
+            drawGlyph(paint, index.getSymbol(id), glyph);
+            if (!glyph.sameAs(missing) && !glyph.sameAs(blank)) {
+                drawable.set(id);
+            }
+        }
+        missing.recycle();
+        blank.recycle();
+        glyph.recycle();
+        Log.i(TAG, drawable.cardinality() + " of " + index.size() + " symbols drawable, checked in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+        return drawable;
+    }
+
+    /** Draw <var>text</var> into <var>into</var>, or a new bitmap if null. */
+    private static Bitmap drawGlyph(Paint paint, String text, Bitmap into) {
+        final Bitmap bitmap = into != null ? into : Bitmap.createBitmap(GLYPH_CHECK_SIZE * 2,
+                GLYPH_CHECK_SIZE * 2, Bitmap.Config.ALPHA_8);
+        bitmap.eraseColor(Color.TRANSPARENT);
+        new Canvas(bitmap).drawText(text, GLYPH_CHECK_SIZE / 2, GLYPH_CHECK_SIZE * 3 / 2, paint);
+        return bitmap;
+    }
+
+    /**
+     * Map raw resource <var>resId</var> into memory, or read it if the
+     * resource was compressed after all.
+     */
+    private static ByteBuffer map(Resources res, int resId) throws IOException {
+        AssetFileDescriptor afd = null;
+        try {
+            afd = res.openRawResourceFd(resId);
+        } catch (Resources.NotFoundException e) {
+            // Compressed: there is no file range to map.
+        }
+        if (afd != null) {
+            final FileInputStream in = afd.createInputStream();
+            try {
+                final FileChannel channel = in.getChannel();
+                return channel.map(FileChannel.MapMode.READ_ONLY, afd.getStartOffset(),
+                        afd.getLength());
+            } finally {
+                in.close();
+            }
+        }
+        Log.w(TAG, "Symbol index is compressed, reading it onto the heap");
+        final InputStream in = res.openRawResource(resId);
+        try {
+            final byte[] bytes = new byte[in.available()];
+            int read = 0;
+            while (read < bytes.length) {
+                final int n = in.read(bytes, read, bytes.length - read);
+                if (n < 0) throw new IOException("Symbol index ended early");
+                read += n;
+            }
+            return ByteBuffer.wrap(bytes);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.softkeyboard;
+
+import android.content.ContentResolver;
+import android.content.res.Resources;
+import android.database.Cursor;
+import android.os.Build;
+import android.provider.UserDictionary;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Expands shortcuts as they are typed, e.g. "(c)" into a copyright sign.  Typed
+ * characters are fed one at a time to an Aho-Corasick automaton over all the
+ * shortcuts, so each character costs about the same however many shortcuts
+ * there are, and a shortcut is recognised as soon as its last character is
+ * typed, whatever was typed before it.
+ *
+ * <p>Shortcuts come from <code>res/raw/shortcuts.txt</code> and, from
+ * Jelly Bean on, from the shortcuts of the user dictionary.  Shortcuts only
+ * expand at the start of a word: the trigger of a shipped shortcut is the
+ * shortcut after a space, and that of a user dictionary shortcut, which
+ * must be a whole word, is the shortcut between a space and the next
+ * space.  The leading space is kept in the text.  The start of the input
+ * counts as a space, see {@link #startState}.  A trigger containing
+ * another could never be typed whole, so the shipped ones are checked
+ * and user dictionary ones that would be are skipped.
+ *
+ * <p>The automaton is immutable, so it can be built on a background thread;
+ * the caller keeps the current state, an int.
+ */
+final class TextExpander {
+    private static final String TAG = "TextExpander";
+
+    /** Number of the root state. */
+    private static final int ROOT = 0;
+
+    /** Shortcut triggers, their expansions, and how many leading characters stay. */
+    private final String[] mTriggers;
+    private final String[] mExpansions;
+    private final int[] mKeptPrefixes;
+
+    // The trie, with the transitions out of state s in
+    // mEdgeChars/mEdgeTargets[mFirstEdge[s], mFirstEdge[s + 1]), sorted by char.
+    private final int[] mFirstEdge;
+    private final char[] mEdgeChars;
+    private final int[] mEdgeTargets;
+    /** Longest proper suffix of each state that is also a state. */
+    private final int[] mFailures;
+    /** Longest shortcut ending at each state, or -1. */
+    private final int[] mOutputs;
+
+    private TextExpander(String[] triggers, String[] expansions, int[] keptPrefixes) {
+        mTriggers = triggers;
+        mExpansions = expansions;
+        mKeptPrefixes = keptPrefixes;
+
+        // Build the trie with one list of children per state.
+        final List<StringBuilder> childChars = new ArrayList<StringBuilder>();
+        final List<List<Integer>> childTargets = new ArrayList<List<Integer>>();
+        final List<Integer> outputs = new ArrayList<Integer>();
+        childChars.add(new StringBuilder());
+        childTargets.add(new ArrayList<Integer>());
+        outputs.add(-1);
+        for (int t = 0; t < triggers.length; t++) {
+            int state = ROOT;
+            for (int i = 0; i < triggers[t].length(); i++) {
+                final char c = triggers[t].charAt(i);
+                final int child = childChars.get(state).indexOf(String.valueOf(c));
+                if (child >= 0) {
+                    state = childTargets.get(state).get(child);
+                } else {
+                    final int next = childChars.size();
+                    childChars.add(new StringBuilder());
+                    childTargets.add(new ArrayList<Integer>());
+                    outputs.add(-1);
+                    childChars.get(state).append(c);
+                    childTargets.get(state).add(next);
+                    state = next;
+                }
+            }
+            // A repeated trigger keeps its first expansion.
+            if (outputs.get(state) < 0) {
+                outputs.set(state, t);
+            }
+        }
+
+        // Flatten it, sorting each state's transitions.
+        final int states = childChars.size();
+        mFirstEdge = new int[states + 1];
+        mEdgeChars = new char[states - 1];
+        mEdgeTargets = new int[states - 1];
+        mOutputs = new int[states];
+        int edge = 0;
+        for (int s = 0; s < states; s++) {
+            mFirstEdge[s] = edge;
+            mOutputs[s] = outputs.get(s);
+            final char[] chars = childChars.get(s).toString().toCharArray();
+            Arrays.sort(chars);
+            for (char c : chars) {
+                mEdgeChars[edge] = c;
+                mEdgeTargets[edge] = childTargets.get(s).get(
+                        childChars.get(s).indexOf(String.valueOf(c)));
+                edge++;
+            }
+        }
+        mFirstEdge[states] = edge;
+
+        // Failure links, breadth first, so that a state's failure is known
+        // before its children's.  A state without a shortcut of its own
+        // outputs its failure's.
+        mFailures = new int[states];
+        final int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        for (int e = mFirstEdge[ROOT]; e < mFirstEdge[ROOT + 1]; e++) {
+            queue[tail++] = mEdgeTargets[e];
+        }
+        while (head < tail) {
+            final int state = queue[head++];
+            for (int e = mFirstEdge[state]; e < mFirstEdge[state + 1]; e++) {
+                final int child = mEdgeTargets[e];
+                mFailures[child] = next(mFailures[state], mEdgeChars[e]);
+                if (mOutputs[child] < 0) {
+                    mOutputs[child] = mOutputs[mFailures[child]];
+                }
+                queue[tail++] = child;
+            }
+        }
+    }
+
+    /**
+     * Read the shipped shortcuts, plus the user dictionary's where the
+     * platform has them.  Does I/O; call it off the main thread.
+     */
+    static TextExpander load(Resources res, ContentResolver resolver) throws IOException {
+        final List<String> triggers = new ArrayList<String>();
+        final List<String> expansions = new ArrayList<String>();
+        final List<Integer> kept = new ArrayList<Integer>();
+
+        final InputStream in = res.openRawResource(R.raw.shortcuts);
+        try {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int tab = line.indexOf('\t');
+                if (line.length() == 0 || line.charAt(0) == '#' || tab <= 0) continue;
+                final String trigger = ' ' + line.substring(0, tab);
+                final String other = findContained(triggers, trigger);
+                if (other != null) {
+                    throw new IOException("Shortcut \"" + trigger.trim() + "\" and \""
+                            + other.trim() + "\" contain one another");
+                }
+                triggers.add(trigger);
+                expansions.add(line.substring(tab + 1));
+                kept.add(1);
+            }
+        } finally {
+            in.close();
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            Cursor cursor = null;
+            try {
+                cursor = resolver.query(UserDictionary.Words.CONTENT_URI,
+                        new String[] { UserDictionary.Words.WORD, UserDictionary.Words.SHORTCUT },
+                        UserDictionary.Words.SHORTCUT + " IS NOT NULL", null, null);
+            } catch (RuntimeException e) {
+                // The user dictionary provider may be missing or refuse us.
+                Log.w(TAG, "Cannot read user dictionary shortcuts", e);
+            }
+            if (cursor != null) {
+                try {
+                    while (cursor.moveToNext()) {
+                        final String word = cursor.getString(0);
+                        final String shortcut = cursor.getString(1);
+                        if (word == null || shortcut == null || shortcut.length() == 0) continue;
+                        final String trigger = ' ' + shortcut + ' ';
+                        final String other = findContained(triggers, trigger);
+                        if (other != null) {
+                            Log.w(TAG, "Skipping user shortcut \"" + shortcut
+                                    + "\", which overlaps \"" + other.trim() + "\"");
+                            continue;
+                        }
+                        triggers.add(trigger);
+                        expansions.add(word + ' ');
+                        kept.add(1);
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+        }
+
+        final int[] keptPrefixes = new int[kept.size()];
+        for (int i = 0; i < keptPrefixes.length; i++) {
+            keptPrefixes[i] = kept.get(i);
+        }
+        return new TextExpander(triggers.toArray(new String[triggers.size()]),
+                expansions.toArray(new String[expansions.size()]), keptPrefixes);
+    }
+
+    /**
+     * One of <var>triggers</var> that contains <var>trigger</var> or is
+     * contained in it, or null if none does.
+     */
+    private static String findContained(List<String> triggers, String trigger) {
+        for (String other : triggers) {
+            if (other.contains(trigger) || trigger.contains(other)) {
+                return other;
+            }
+        }
+        return null;
+    }
+
+    /** The state at the start of the input, or after the cursor moved. */
+    int startState() {
+        return next(ROOT, ' ');
+    }
+
+    /** The state after typing <var>c</var> in <var>state</var>. */
+    int next(int state, char c) {
+        while (true) {
+            // Binary search of the state's sorted transitions.
+            int low = mFirstEdge[state];
+            int high = mFirstEdge[state + 1] - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final char midChar = mEdgeChars[mid];
+                if (midChar < c) {
+                    low = mid + 1;
+                } else if (midChar > c) {
+                    high = mid - 1;
+                } else {
+                    return mEdgeTargets[mid];
+                }
+            }
+            if (state == ROOT) return ROOT;
+            state = mFailures[state];
+        }
+    }
+
+    /** The shortcut that typing up to <var>state</var> completes, or -1. */
+    int getMatch(int state) {
+        return mOutputs[state];
+    }
+
+    String getTrigger(int shortcut) {
+        return mTriggers[shortcut];
+    }
+
+    String getExpansion(int shortcut) {
+        return mExpansions[shortcut];
+    }
+
+    /** How many leading characters of the trigger are kept in the text. */
+    int getKeptPrefix(int shortcut) {
+        return mKeptPrefixes[shortcut];
+    }
+
+    int size() {
+        return mTriggers.length;
+    }
+}
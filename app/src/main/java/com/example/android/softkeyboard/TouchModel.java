@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.softkeyboard;
+
+import android.inputmethodservice.Keyboard;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Learns where the user actually touches each key of a layout, so that hit
+ * testing can aim at that spot instead of the key's centre.
+ *
+ * <p>For every key it keeps running (Welford) statistics of the confirmed
+ * touches' offsets from the centre, in key widths and heights: their count,
+ * mean and sum of squared deviations, per axis, in flat primitive arrays.
+ * Adding a touch is O(1) and allocates nothing.  The count is capped so
+ * that the model keeps adapting: past the cap, older touches fade out.
+ *
+ * <p>A key's effective target is then a box centred on its mean offset,
+ * two standard deviations wide each way.  Both are shrunk towards the
+ * static key (centred, half a key each way) while a key has few touches,
+ * so an untrained model hits exactly like the layout.  See
+ * {@link #score}.
+ *
+ * <p>Not thread safe; it is used from the main thread.  Use
+ * {@link #toByteArray} there to save it elsewhere.
+ */
+final class TouchModel {
+
+    private static final int MAGIC = 0x544f4348; // "TOCH"
+    private static final int VERSION = 1;
+
+    /** Touches after which old ones start to fade out. */
+    private static final int MAX_COUNT = 200;
+    /** How many touches the static key counts for against the learned ones. */
+    private static final float PRIOR_COUNT = 20;
+    /** Half extent of a static key's target, in keys. */
+    private static final float DEFAULT_HALF_EXTENT = 0.5f;
+    /** Bounds on a learned target's half extent, in keys. */
+    private static final float MIN_HALF_EXTENT = 0.35f;
+    private static final float MAX_HALF_EXTENT = 0.75f;
+
+    private final int mKeyCount;
+    private final int[] mCounts;
+    private final float[] mMeanX;
+    private final float[] mMeanY;
+    private final float[] mSquaresX;
+    private final float[] mSquaresY;
+    private boolean mDirty;
+
+    TouchModel(int keyCount) {
+        mKeyCount = keyCount;
+        mCounts = new int[keyCount];
+        mMeanX = new float[keyCount];
+        mMeanY = new float[keyCount];
+        mSquaresX = new float[keyCount];
+        mSquaresY = new float[keyCount];
+    }
+
+    int getKeyCount() {
+        return mKeyCount;
+    }
+
+    boolean isEmpty() {
+        for (int i = 0; i < mKeyCount; i++) {
+            if (mCounts[i] > 0) return false;
+        }
+        return true;
+    }
+
+    /** Whether touches were added since the last {@link #toByteArray}. */
+    boolean isDirty() {
+        return mDirty;
+    }
+
+    /** Learn that <var>key</var>, at index <var>index</var>, was meant at (x, y). */
+    void add(int index, Keyboard.Key key, int x, int y) {
+        final float dx = (x - (key.x + key.width / 2f)) / key.width;
+        final float dy = (y - (key.y + key.height / 2f)) / key.height;
+        int n = mCounts[index];
+        if (n == MAX_COUNT) {
+            // Keep the variance estimate while making room for the touch.
+            mSquaresX[index] *= (n - 1f) / n;
+            mSquaresY[index] *= (n - 1f) / n;
+        } else {
+            mCounts[index] = ++n;
+        }
+        final float deltaX = dx - mMeanX[index];
+        final float deltaY = dy - mMeanY[index];
+        mMeanX[index] += deltaX / n;
+        mMeanY[index] += deltaY / n;
+        mSquaresX[index] += deltaX * (dx - mMeanX[index]);
+        mSquaresY[index] += deltaY * (dy - mMeanY[index]);
+        mDirty = true;
+    }
+
+    /**
+     * How far (x, y) is from the learned target of <var>key</var>, in the
+     * Chebyshev norm scaled so that the target's edge is at 1.  Smaller is
+     * a better match.
+     */
+    float score(int index, Keyboard.Key key, int x, int y) {
+        final int n = mCounts[index];
+        final float dx = (x - (key.x + key.width / 2f)) / key.width;
+        final float dy = (y - (key.y + key.height / 2f)) / key.height;
+        if (n == 0) {
+            return Math.max(Math.abs(dx), Math.abs(dy)) / DEFAULT_HALF_EXTENT;
+        }
+        final float weight = n / (n + PRIOR_COUNT);
+        final float halfX = halfExtent(mSquaresX[index], n, weight);
+        final float halfY = halfExtent(mSquaresY[index], n, weight);
+        return Math.max(Math.abs(dx - weight * mMeanX[index]) / halfX,
+                Math.abs(dy - weight * mMeanY[index]) / halfY);
+    }
+
+    private static float halfExtent(float squares, int n, float weight) {
+        final float learned = n > 1 ? 2 * (float) Math.sqrt(squares / (n - 1)) : DEFAULT_HALF_EXTENT;
+        final float clamped = Math.max(MIN_HALF_EXTENT, Math.min(MAX_HALF_EXTENT, learned));
+        return DEFAULT_HALF_EXTENT + weight * (clamped - DEFAULT_HALF_EXTENT);
+    }
+
+    /**
+     * Serialize the model: magic, version and key count ints, then per key
+     * a short count and four floats, big endian.  Clears the dirty mark.
+     */
+    byte[] toByteArray() {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(12 + mKeyCount * 18);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mKeyCount);
+            for (int i = 0; i < mKeyCount; i++) {
+                out.writeShort(mCounts[i]);
+                out.writeFloat(mMeanX[i]);
+                out.writeFloat(mMeanY[i]);
+                out.writeFloat(mSquaresX[i]);
+                out.writeFloat(mSquaresY[i]);
+            }
+        } catch (IOException e) {
+            // Not from a byte array.
+            throw new AssertionError(e);
+        }
+        mDirty = false;
+        return bytes.toByteArray();
+    }
+
+    /** Read a model written by {@link #toByteArray}. */
+    static TouchModel read(InputStream stream) throws IOException {
+        final DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a touch model of version " + VERSION);
+        }
+        final TouchModel model = new TouchModel(in.readInt());
+        for (int i = 0; i < model.mKeyCount; i++) {
+            model.mCounts[i] = Math.min(in.readUnsignedShort(), MAX_COUNT);
+            model.mMeanX[i] = in.readFloat();
+            model.mMeanY[i] = in.readFloat();
+            model.mSquaresX[i] = in.readFloat();
+            model.mSquaresY[i] = in.readFloat();
+        }
+        return model;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.example.android.softkeyboard;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.provider.UserDictionary;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The words of the system user dictionary, as a {@link WordSource}.
+ *
+ * <p>The provider has no modification times, so the source keeps a version
+ * of each row it has reported: a hash of the row's word, frequency and
+ * locale.  From Jelly Bean on, a change notification names the row that
+ * was inserted, and only that row is read again.  Other notifications,
+ * e.g. for updates and deletions, which name the whole table, make the
+ * next read scan the table's small columns and report only the rows whose
+ * version differs, and the rows that are gone.
+ */
+final class UserDictionaryWordSource implements WordSource {
+    private static final String TAG = "UserDictionaryWordSource";
+
+    private static final String[] PROJECTION = {
+        UserDictionary.Words._ID,
+        UserDictionary.Words.WORD,
+        UserDictionary.Words.FREQUENCY,
+        UserDictionary.Words.LOCALE,
+    };
+
+    private final ContentResolver mResolver;
+    private final ContentObserver mObserver;
+    private Listener mListener;
+
+    // Only used on the background executor.
+    /** Version of every row reported, by row id. */
+    private final Map<Long, Integer> mVersions = new HashMap<Long, Integer>();
+    private boolean mRead;
+
+    // Set by notifications, taken by reads.
+    private final Set<Long> mChangedRows = new HashSet<Long>();
+    private boolean mScanNeeded;
+
+    UserDictionaryWordSource(ContentResolver resolver, Handler handler) {
+        mResolver = resolver;
+        mObserver = new ContentObserver(handler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                onUserDictionaryChanged(uri);
+            }
+        };
+    }
+
+    @Override
+    public String getName() {
+        return "userDictionary";
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        if (mListener != null) {
+            mResolver.unregisterContentObserver(mObserver);
+        }
+        mListener = listener;
+        if (listener != null) {
+            mResolver.registerContentObserver(UserDictionary.Words.CONTENT_URI, true, mObserver);
+        }
+    }
+
+    private void onUserDictionaryChanged(Uri uri) {
+        long rowId = -1;
+        if (uri != null && uri.getPathSegments().size() == 2) {
+            try {
+                rowId = ContentUris.parseId(uri);
+            } catch (NumberFormatException e) {
+                // Not a row; scan the table.
+            }
+        }
+        synchronized (mChangedRows) {
+            if (rowId >= 0) {
+                mChangedRows.add(rowId);
+            } else {
+                mScanNeeded = true;
+            }
+        }
+        final Listener listener = mListener;
+        if (listener != null) {
+            listener.onWordSourceChanged(this);
+        }
+    }
+
+    @Override
+    public void readChanges(Sink sink) {
+        final boolean scan;
+        final Long[] rows;
+        synchronized (mChangedRows) {
+            scan = mScanNeeded || !mRead;
+            rows = mChangedRows.toArray(new Long[mChangedRows.size()]);
+            mChangedRows.clear();
+            mScanNeeded = false;
+        }
+        Cursor cursor = null;
+        try {
+            if (scan) {
+                cursor = mResolver.query(UserDictionary.Words.CONTENT_URI, PROJECTION,
+                        null, null, null);
+            } else if (rows.length > 0) {
+                final StringBuilder selection = new StringBuilder(UserDictionary.Words._ID)
+                        .append(" IN (");
+                for (int i = 0; i < rows.length; i++) {
+                    selection.append(i > 0 ? "," : "").append(rows[i]);
+                }
+                cursor = mResolver.query(UserDictionary.Words.CONTENT_URI, PROJECTION,
+                        selection.append(')').toString(), null, null);
+            }
+        } catch (RuntimeException e) {
+            // The user dictionary provider may be missing or refuse us.
+            Log.w(TAG, "Cannot read user dictionary words", e);
+        }
+        if (cursor == null) {
+            if (scan || rows.length > 0) {
+                // Keep the changes pending so the next read tries them again.
+                synchronized (mChangedRows) {
+                    mScanNeeded |= scan;
+                    Collections.addAll(mChangedRows, rows);
+                }
+            }
+            return;
+        }
+        final Set<Long> seen = new HashSet<Long>();
+        try {
+            while (cursor.moveToNext()) {
+                final long rowId = cursor.getLong(0);
+                final String word = cursor.getString(1);
+                seen.add(rowId);
+                if (word == null || word.length() == 0) {
+                    if (mVersions.remove(rowId) != null) {
+                        sink.onRowDeleted(rowId);
+                    }
+                    continue;
+                }
+                final int version = 31 * (31 * word.hashCode() + cursor.getInt(2))
+                        + String.valueOf(cursor.getString(3)).hashCode();
+                final Integer previous = mVersions.put(rowId, version);
+                if (previous == null || previous != version) {
+                    sink.onRowChanged(rowId, word);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        mRead = true;
+        // Rows asked for or scanned that are no longer there.
+        if (scan) {
+            for (Iterator<Long> i = mVersions.keySet().iterator(); i.hasNext(); ) {
+                final long rowId = i.next();
+                if (!seen.contains(rowId)) {
+                    i.remove();
+                    sink.onRowDeleted(rowId);
+                }
+            }
+        } else {
+            for (Long rowId : rows) {
+                if (!seen.contains(rowId) && mVersions.remove(rowId) != null) {
+                    sink.onRowDeleted(rowId);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.example.android.softkeyboard;
+
+import android.os.SystemClock;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The words of the user, gathered from {@link WordSource}s, and kept up to
+ * date incrementally.  They are published as {@link Words}: a
+ * {@link WordFilter} telling whether a word is known, and the words
+ * themselves in order, to complete prefixes from.
+ *
+ * <p>When a source says it changed, a merge is queued on the
+ * {@link BackgroundExecutor}, unless one is queued already, so a burst of
+ * changes costs one merge.  The merge asks each changed source for its
+ * changed rows only, and adds their words to a copy of the filter; the
+ * copy is then handed to the main thread, so lookups never wait and never
+ * see a filter being filled.  A Bloom filter cannot forget a word, so a
+ * word whose last row is deleted stays in the filter, counted as stale,
+ * until stale words are a quarter of it, or until the filter is fuller
+ * than it was sized for; then it is built again from the rows held here,
+ * still without reading any source.  Deleted words stop being offered as
+ * completions at once.
+ */
+final class UserLexicon implements WordSource.Listener {
+
+    /** False positive rate wanted of the filter. */
+    private static final double FALSE_POSITIVE_RATE = 0.001;
+    /** Memory budget of the filter. */
+    private static final int MAX_BYTES = 64 * 1024;
+    /** Words the filter is sized for beyond those it starts with. */
+    private static final int MIN_HEADROOM = 256;
+
+    interface Listener {
+        /** Called on the main thread with the words to use from now on. */
+        void onUserWordsChanged(Words words);
+    }
+
+    /** The user's words as merged at one point; immutable. */
+    static final class Words {
+        private final WordFilter mFilter;
+        /** The folded words, sorted, and the words as their rows spell them. */
+        private final String[] mFolded;
+        private final String[] mWords;
+
+        private Words(WordFilter filter, String[] folded, String[] words) {
+            mFilter = filter;
+            mFolded = folded;
+            mWords = words;
+        }
+
+        /** False if <var>word</var> is not the user's; true if it probably is. */
+        boolean mightContain(CharSequence word) {
+            return mFilter.mightContain(word);
+        }
+
+        /**
+         * Append to <var>out</var> up to <var>max</var> of the user's words
+         * that start with <var>prefix</var> (ignoring case), are longer than
+         * it and are not in <var>out</var> already, in alphabetical order.
+         * Words are capitalized if the prefix is.
+         */
+        void getCompletions(CharSequence prefix, int max, List<String> out) {
+            if (prefix.length() == 0 || max <= 0) return;
+            final String folded = fold(prefix.toString());
+            int low = 0;
+            int high = mFolded.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (mFolded[mid].compareTo(folded) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            final boolean capitalize = Character.isUpperCase(prefix.charAt(0));
+            int added = 0;
+            for (int i = low; i < mFolded.length && added < max
+                    && mFolded[i].startsWith(folded); i++) {
+                if (mFolded[i].length() == folded.length()) continue;
+                String word = mWords[i];
+                if (capitalize) {
+                    word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+                }
+                if (!out.contains(word)) {
+                    out.add(word);
+                    added++;
+                }
+            }
+        }
+
+        int size() {
+            return mFolded.length;
+        }
+
+        @Override
+        public String toString() {
+            return mFilter.toString();
+        }
+    }
+
+    private final Listener mListener;
+    private final List<WordSource> mSources = new ArrayList<WordSource>();
+
+    // Set by notifications, taken by merges.
+    private final List<WordSource> mChangedSources = new ArrayList<WordSource>();
+    private boolean mMergeQueued;
+
+    // Only used on the background executor.
+    /** The word of every row, by source and row id. */
+    private final Map<WordSource, Map<Long, String>> mRows =
+            new HashMap<WordSource, Map<Long, String>>();
+    /** How many rows hold each folded word. */
+    private final Map<String, Integer> mWordRows = new HashMap<String, Integer>();
+    /** The word as the first row holding it spells it, by folded word, in order. */
+    private final TreeMap<String, String> mSpellings = new TreeMap<String, String>();
+    /** Whether the last merge added or removed a word. */
+    private boolean mWordsChanged;
+    /** The filter last published, or null. */
+    private WordFilter mFilter;
+    /** The filter being merged into, a copy of {@link #mFilter}, or null. */
+    private WordFilter mMerging;
+    /** Words the filter was sized for. */
+    private int mCapacity;
+    /** Words in the filter no row holds any more. */
+    private int mStale;
+    private Words mWords;
+    private long mMerges;
+    private long mRowsMerged;
+    private long mRebuilds;
+    private long mLastMergeMillis;
+
+    UserLexicon(Listener listener) {
+        mListener = listener;
+    }
+
+    /** Add <var>source</var> and read all its rows.  Call on the main thread. */
+    void addSource(WordSource source) {
+        mSources.add(source);
+        source.setListener(this);
+        onWordSourceChanged(source);
+    }
+
+    /** Stop listening to every source.  Call on the main thread. */
+    void stop() {
+        for (WordSource source : mSources) {
+            source.setListener(null);
+        }
+    }
+
+    @Override
+    public void onWordSourceChanged(WordSource source) {
+        synchronized (mChangedSources) {
+            if (!mChangedSources.contains(source)) {
+                mChangedSources.add(source);
+            }
+            if (mMergeQueued) {
+                return;
+            }
+            mMergeQueued = true;
+        }
+        BackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                merge();
+            }
+        });
+    }
+
+    private void merge() {
+        final WordSource[] sources;
+        synchronized (mChangedSources) {
+            sources = mChangedSources.toArray(new WordSource[mChangedSources.size()]);
+            mChangedSources.clear();
+            mMergeQueued = false;
+        }
+        final long start = SystemClock.uptimeMillis();
+        mWordsChanged = false;
+        for (final WordSource source : sources) {
+            Map<Long, String> rows = mRows.get(source);
+            if (rows == null) {
+                rows = new HashMap<Long, String>();
+                mRows.put(source, rows);
+            }
+            final Map<Long, String> sourceRows = rows;
+            source.readChanges(new WordSource.Sink() {
+                @Override
+                public void onRowChanged(long rowId, String word) {
+                    final String previous = sourceRows.put(rowId, word);
+                    if (word.equals(previous)) {
+                        return;
+                    }
+                    removeWord(previous);
+                    addWord(word);
+                    mRowsMerged++;
+                }
+
+                @Override
+                public void onRowDeleted(long rowId) {
+                    removeWord(sourceRows.remove(rowId));
+                    mRowsMerged++;
+                }
+            });
+        }
+
+        final int words = mWordRows.size();
+        if (mFilter == null || mStale * 4 > words + mStale || words + mStale > mCapacity) {
+            rebuild();
+        } else if (!mWordsChanged) {
+            return;
+        }
+        if (mMerging != null) {
+            mFilter = mMerging;
+            mMerging = null;
+        }
+        final String[] folded = mSpellings.keySet().toArray(new String[words]);
+        final String[] spellings = mSpellings.values().toArray(new String[words]);
+        final Words published = new Words(mFilter, folded, spellings);
+        mWords = published;
+        mMerges++;
+        mLastMergeMillis = SystemClock.uptimeMillis() - start;
+        BackgroundExecutor.postToMain(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onUserWordsChanged(published);
+            }
+        });
+    }
+
+    private void addWord(String word) {
+        final String folded = fold(word);
+        final Integer count = mWordRows.get(folded);
+        if (count != null) {
+            mWordRows.put(folded, count + 1);
+            return;
+        }
+        mWordRows.put(folded, 1);
+        mSpellings.put(folded, word);
+        mWordsChanged = true;
+        if (mMerging == null && mFilter != null) {
+            mMerging = mFilter.copy();
+        }
+        if (mMerging != null) {
+            mMerging.add(folded);
+        }
+    }
+
+    private void removeWord(String word) {
+        if (word == null) {
+            return;
+        }
+        final String folded = fold(word);
+        final int count = mWordRows.get(folded);
+        if (count > 1) {
+            mWordRows.put(folded, count - 1);
+        } else {
+            mWordRows.remove(folded);
+            mSpellings.remove(folded);
+            mWordsChanged = true;
+            mStale++;
+        }
+    }
+
+    /** Build {@link #mMerging} afresh from the words of the rows. */
+    private void rebuild() {
+        final int words = mWordRows.size();
+        mCapacity = words + Math.max(MIN_HEADROOM, words / 2);
+        mMerging = WordFilter.create(mCapacity, FALSE_POSITIVE_RATE, MAX_BYTES);
+        for (String word : mWordRows.keySet()) {
+            mMerging.add(word);
+        }
+        mStale = 0;
+        mRebuilds++;
+    }
+
+    /** <var>word</var> lower cased as {@link WordFilter} compares words. */
+    private static String fold(String word) {
+        final char[] chars = word.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    void dump(PrintWriter pw) {
+        pw.println("User lexicon:");
+        final StringBuilder sources = new StringBuilder();
+        for (WordSource source : mSources) {
+            sources.append(sources.length() > 0 ? "," : "").append(source.getName());
+        }
+        pw.println("  sources=" + sources + " merges=" + mMerges + " rowsMerged=" + mRowsMerged
+                + " rebuilds=" + mRebuilds + " lastMerge=" + mLastMergeMillis + "ms");
+        final Words words = mWords;
+        pw.println("  words=" + (words != null ? words.size() : 0) + " filter=" + words);
+    }
+}
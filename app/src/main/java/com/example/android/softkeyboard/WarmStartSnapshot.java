@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.softkeyboard;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A file of state the input method derives or learns at run time, so that
+ * a process the system killed and restarted picks it up instead of
+ * deriving it again: the shape tables computed for language packs, and the
+ * touch model.
+ *
+ * <p>The file is a list of named sections:
+ * <pre>
+ * int magic, int version, int app version code, int section count,
+ * then per section: UTF name, boolean derived, int length, length bytes
+ * </pre>
+ * big endian.  It is memory-mapped when first needed, and sections are
+ * read in place from the mapping.  Derived sections depend on the app's
+ * resources and are dropped when the app is updated; the others (what was
+ * learned from the user) are kept.
+ *
+ * <p>Sections are replaced with {@link #put}, and {@link #saveAsync} writes
+ * a new file on the {@link BackgroundExecutor}, with the sections of the
+ * old one that were not replaced.  A process wide singleton; all methods
+ * are thread safe.
+ */
+final class WarmStartSnapshot {
+    private static final String TAG = "WarmStartSnapshot";
+
+    private static final int MAGIC = 0x534e4150; // "SNAP"
+    private static final int VERSION = 1;
+    private static final String FILE_NAME = "warm_start.snap";
+
+    static final String TOUCH_MODEL = "touch/qwerty";
+
+    private static WarmStartSnapshot sInstance;
+
+    private final File mFile;
+    private final int mAppVersion;
+    private boolean mOpened;
+    /** The sections, from the mapped file or put since, by name. */
+    private final Map<String, ByteBuffer> mSections = new LinkedHashMap<String, ByteBuffer>();
+    private final Map<String, Boolean> mDerived = new LinkedHashMap<String, Boolean>();
+    private boolean mSavePending;
+    private long mOpenMillis = -1;
+    private int mMappedBytes;
+
+    static synchronized WarmStartSnapshot getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WarmStartSnapshot(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private WarmStartSnapshot(Context context) {
+        mFile = new File(context.getFilesDir(), FILE_NAME);
+        int appVersion = 0;
+        try {
+            appVersion = context.getPackageManager()
+                    .getPackageInfo(context.getPackageName(), 0).versionCode;
+        } catch (PackageManager.NameNotFoundException e) {
+            // Our own package: cannot happen.
+        }
+        mAppVersion = appVersion;
+    }
+
+    /** Map the file and index its sections, once.  Does I/O. */
+    private void open() {
+        if (mOpened) return;
+        mOpened = true;
+        if (!mFile.exists()) return;
+        final long start = System.nanoTime();
+        try {
+            final ByteBuffer buffer = map(mFile);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a snapshot of version " + VERSION);
+            }
+            final boolean sameApp = buffer.getInt() == mAppVersion;
+            final int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                final String name = readUtf(buffer);
+                final boolean derived = buffer.get() != 0;
+                final int length = buffer.getInt();
+                final ByteBuffer section = buffer.slice();
+                section.limit(length);
+                buffer.position(buffer.position() + length);
+                if (derived && !sameApp) continue;
+                mSections.put(name, section);
+                mDerived.put(name, derived);
+            }
+            mMappedBytes = buffer.capacity();
+        } catch (IOException e) {
+            Log.w(TAG, "Ignoring snapshot", e);
+            mSections.clear();
+            mDerived.clear();
+        } catch (RuntimeException e) {
+            // Truncated: buffer underflow, or a bad section length.
+            Log.w(TAG, "Ignoring snapshot", e);
+            mSections.clear();
+            mDerived.clear();
+        }
+        mOpenMillis = (System.nanoTime() - start) / 1000000;
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            final FileChannel channel = in.getChannel();
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String readUtf(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * The section called <var>name</var> as a stream over the mapping, or
+     * null if there is none.  Does I/O the first time.
+     */
+    synchronized InputStream get(String name) {
+        open();
+        final ByteBuffer section = mSections.get(name);
+        return section != null ? new ByteBufferInputStream(section.duplicate()) : null;
+    }
+
+    /**
+     * Replace the section called <var>name</var>; <var>derived</var> if it
+     * can be computed again from the app's resources.  <var>bytes</var> are
+     * held on the heap until the next save, which maps them from the file
+     * instead.
+     */
+    synchronized void put(String name, boolean derived, byte[] bytes) {
+        open();
+        mSections.put(name, ByteBuffer.wrap(bytes));
+        mDerived.put(name, derived);
+    }
+
+    /** Write the sections to the file in the background. */
+    synchronized void saveAsync() {
+        if (mSavePending) return;
+        mSavePending = true;
+        BackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                save();
+            }
+        });
+    }
+
+    private void save() {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        // What was written, and where, to map it back once saved.
+        final Map<String, ByteBuffer> written = new LinkedHashMap<String, ByteBuffer>();
+        final Map<String, Integer> offsets = new LinkedHashMap<String, Integer>();
+        synchronized (this) {
+            mSavePending = false;
+            try {
+                final DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(mAppVersion);
+                out.writeInt(mSections.size());
+                for (Map.Entry<String, ByteBuffer> entry : mSections.entrySet()) {
+                    final ByteBuffer section = entry.getValue().duplicate();
+                    section.position(0);
+                    out.writeUTF(entry.getKey());
+                    out.writeBoolean(mDerived.get(entry.getKey()));
+                    out.writeInt(section.remaining());
+                    written.put(entry.getKey(), entry.getValue());
+                    offsets.put(entry.getKey(), out.size());
+                    final byte[] chunk = new byte[Math.min(section.remaining(), 8192)];
+                    while (section.hasRemaining()) {
+                        final int n = Math.min(chunk.length, section.remaining());
+                        section.get(chunk, 0, n);
+                        out.write(chunk, 0, n);
+                    }
+                }
+            } catch (IOException e) {
+                // Not from a byte array.
+                throw new AssertionError(e);
+            }
+        }
+        // A new file, renamed over the old one: the old mapping stays valid,
+        // and a crash never leaves half a snapshot.
+        final File temp = new File(mFile.getPath() + ".tmp");
+        try {
+            final BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(temp));
+            try {
+                bytes.writeTo(out);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(mFile)) {
+                throw new IOException("Cannot rename " + temp);
+            }
+            remap(map(mFile), written, offsets);
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot save snapshot", e);
+        }
+    }
+
+    /**
+     * Serve the sections just saved from <var>buffer</var>, the new file,
+     * so that those put on the heap can be collected; unless they were put
+     * again meanwhile.
+     */
+    private synchronized void remap(ByteBuffer buffer, Map<String, ByteBuffer> written,
+            Map<String, Integer> offsets) {
+        for (Map.Entry<String, ByteBuffer> entry : written.entrySet()) {
+            final String name = entry.getKey();
+            if (mSections.get(name) != entry.getValue()) continue;
+            buffer.position(offsets.get(name));
+            final ByteBuffer section = buffer.slice();
+            section.limit(entry.getValue().limit());
+            mSections.put(name, section);
+        }
+        mMappedBytes = buffer.capacity();
+    }
+
+    synchronized void dump(PrintWriter pw) {
+        pw.println("Warm start snapshot:");
+        pw.println("  opened=" + mOpened + " openMillis=" + mOpenMillis
+                + " mappedBytes=" + mMappedBytes + " sections=" + mSections.keySet());
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer mBuffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return mBuffer.hasRemaining() ? mBuffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            if (!mBuffer.hasRemaining()) return -1;
+            final int n = Math.min(len, mBuffer.remaining());
+            mBuffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return mBuffer.remaining();
+        }
+    }
+}
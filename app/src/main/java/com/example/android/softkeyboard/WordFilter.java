@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.softkeyboard;
+
+import java.util.Locale;
+
+/**
+ * A Bloom filter over words, ignoring case: answers whether a word is known
+ * in constant time, without allocating, with no false negatives and a
+ * bounded rate of false positives.
+ *
+ * <p>The filter is sized by {@link #create} for the number of words it will
+ * hold and the false positive rate wanted, but never beyond a memory budget;
+ * if the budget is the limit, the rate gets worse, and
+ * {@link #getFalsePositiveRate} reports the rate expected for the words
+ * added so far.  The k bit positions of a word come from one 64 bit hash by
+ * double hashing.
+ *
+ * <p>Adding is not thread safe; once filled, a filter may be queried from
+ * any thread.
+ */
+final class WordFilter {
+
+    private static final double LN2 = Math.log(2);
+    private static final int MAX_HASHES = 16;
+
+    private final long[] mBits;
+    private final long mBitCount;
+    private final int mHashes;
+    private int mCount;
+
+    private WordFilter(int longs, int hashes) {
+        mBits = new long[longs];
+        mBitCount = (long) longs * 64;
+        mHashes = hashes;
+    }
+
+    /**
+     * Make an empty filter for about <var>expectedWords</var> words, with a
+     * false positive rate of <var>falsePositiveRate</var> if that fits in
+     * <var>maxBytes</var>.
+     */
+    static WordFilter create(int expectedWords, double falsePositiveRate, int maxBytes) {
+        final int words = Math.max(expectedWords, 1);
+        final double bitsWanted = -words * Math.log(falsePositiveRate) / (LN2 * LN2);
+        final int longs = (int) Math.max(1, Math.min(Math.ceil(bitsWanted / 64), maxBytes / 8));
+        final int hashes = (int) Math.max(1, Math.min(MAX_HASHES,
+                Math.round((double) longs * 64 / words * LN2)));
+        return new WordFilter(longs, hashes);
+    }
+
+    /** A filter with the same words, to which more can be added. */
+    WordFilter copy() {
+        final WordFilter copy = new WordFilter(mBits.length, mHashes);
+        System.arraycopy(mBits, 0, copy.mBits, 0, mBits.length);
+        copy.mCount = mCount;
+        return copy;
+    }
+
+    void add(CharSequence word) {
+        final long hash = hash(word);
+        final long h1 = hash & 0xffffffffL;
+        final long h2 = (hash >>> 32) | 1;
+        for (int i = 0; i < mHashes; i++) {
+            final long bit = (h1 + i * h2) % mBitCount;
+            mBits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        mCount++;
+    }
+
+    /** False if <var>word</var> was never added; true if it probably was. */
+    boolean mightContain(CharSequence word) {
+        final long hash = hash(word);
+        final long h1 = hash & 0xffffffffL;
+        final long h2 = (hash >>> 32) | 1;
+        for (int i = 0; i < mHashes; i++) {
+            final long bit = (h1 + i * h2) % mBitCount;
+            if ((mBits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** FNV-1a over the lower cased characters, then a 64 bit finalizer. */
+    private static long hash(CharSequence word) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < word.length(); i++) {
+            hash ^= Character.toLowerCase(word.charAt(i));
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    int getByteSize() {
+        return mBits.length * 8;
+    }
+
+    /** The false positive rate expected with the words added so far. */
+    double getFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-(double) mHashes * mCount / mBitCount), mHashes);
+    }
+
+    @Override
+    public String toString() {
+        return "words=" + mCount + " bytes=" + getByteSize() + " hashes=" + mHashes
+                + " falsePositiveRate=" + String.format(Locale.ROOT, "%.4f", getFalsePositiveRate());
+    }
+}
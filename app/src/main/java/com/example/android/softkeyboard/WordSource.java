@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.example.android.softkeyboard;
+
+/**
+ * A source of words for the lexicon, such as the user dictionary, made of
+ * rows that are added, changed and deleted over time.  Sources are read
+ * incrementally: a source tells its listener when rows change, and then
+ * reports only the rows changed since it was last read, see
+ * {@link UserLexicon}.
+ */
+interface WordSource {
+
+    interface Listener {
+        /** Rows of <var>source</var> changed; called on any thread. */
+        void onWordSourceChanged(WordSource source);
+    }
+
+    /** Receives the rows read by {@link #readChanges}. */
+    interface Sink {
+        /** Row <var>rowId</var> was added, or now holds <var>word</var>. */
+        void onRowChanged(long rowId, String word);
+
+        /** Row <var>rowId</var> was deleted. */
+        void onRowDeleted(long rowId);
+    }
+
+    /** A short name for dumps. */
+    String getName();
+
+    /** Start telling <var>listener</var> about changes, or stop with null. */
+    void setListener(Listener listener);
+
+    /**
+     * Report to <var>sink</var> the rows changed since the last call, the
+     * first call reporting every row.  Called on the
+     * {@link BackgroundExecutor} only, so it may do I/O.
+     */
+    void readChanges(Sink sink);
+}
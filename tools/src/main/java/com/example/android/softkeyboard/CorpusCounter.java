@@ -0,0 +1,538 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.example.android.softkeyboard;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * Counts the words and bigrams of text corpora, UTF-8 files of any size,
+ * and writes the most frequent of each as word lists in the format of
+ * <code>res/raw/words_*.txt</code>: "entry&lt;TAB&gt;frequency" lines, most
+ * frequent first, with the counts scaled logarithmically to 1-255.  A
+ * bigram entry is its two words separated by a space.
+ *
+ * <p>Words are split as the keyboard splits them, at the characters of
+ * <code>R.string.word_separators</code>, read from the app's strings.xml,
+ * and at control characters; they are lower-cased as the keyboard's word
+ * lists are.  Two words make a bigram when only white space separates
+ * them; punctuation between them does not.  Longer words than
+ * {@link #MAX_WORD_BYTES} are dropped as noise.
+ *
+ * <p>The files are split into chunks ending at a separator, each mapped
+ * into memory on its own, so no mapping is near the 2 GB limit and the
+ * text is never copied onto the heap.  Worker threads count chunks into
+ * their own {@link CountTable}s and merge them into a table sharded by
+ * key hash, each shard locked separately.  A shard that grows past twice
+ * its share of the entries kept is pruned to its most frequent keys, which
+ * bounds the memory used however large the corpus is.  A key pruned and
+ * seen again is undercounted by at most the sum of the highest counts its
+ * shard's prunings dropped; the largest such sum is reported.  Ties are
+ * broken by key, both by pruning and by the output's limits, but which
+ * keys survive pruning also depends on when the shard was pruned, so the
+ * output only repeats exactly, whatever the number of threads, when
+ * nothing was pruned.
+ */
+final class CorpusCounter {
+
+    static final String USAGE = "[-j threads] [-w words] [-b bigrams] [-m min count]"
+            + " <strings.xml> <words output> <bigrams output> <corpus>...";
+
+    static final int MAX_WORD_BYTES = 48;
+
+    /** Bytes of text counted by a task, before moving its end to a separator. */
+    private static final int CHUNK_BYTES = 64 << 20;
+    /** How far a chunk may be extended to find a separator before being cut anyway. */
+    private static final int MAX_CHUNK_EXTENSION = 1 << 20;
+    /**
+     * Entries a worker counts before merging them.  Small enough for its
+     * tables to stay in the processor's cache, where frequent words are
+     * counted many times for each time they are merged.
+     */
+    private static final int LOCAL_ENTRIES = 1 << 15;
+    private static final int SHARD_BITS = 6;
+    /** Most entries that can be kept, so that shards' entry numbers fit in 21 bits. */
+    private static final int MAX_ENTRIES = 50000000;
+    private static final int READ_BUFFER_BYTES = 1 << 16;
+
+    // Classes of ASCII bytes; bytes from 0x80 up are parts of words.
+    private static final byte WORD = 0;
+    /** A separator that does not break a bigram. */
+    private static final byte SPACE = 1;
+    private static final byte BREAK = 2;
+
+    private final byte[] mClasses;
+    private final Shards mWords;
+    private final Shards mBigrams;
+    private final AtomicLong mTokens = new AtomicLong();
+
+    private CorpusCounter(byte[] classes, int maxWords, int maxBigrams) {
+        mClasses = classes;
+        mWords = new Shards(maxWords);
+        mBigrams = new Shards(maxBigrams);
+    }
+
+    static int run(String[] args) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int maxWords = 500000;
+        int maxBigrams = 2000000;
+        int minCount = 2;
+        int arg = 0;
+        while (arg + 1 < args.length && args[arg].startsWith("-")) {
+            final int value = Integer.parseInt(args[arg + 1]);
+            switch (args[arg]) {
+                case "-j": threads = value; break;
+                case "-w": maxWords = value; break;
+                case "-b": maxBigrams = value; break;
+                case "-m": minCount = value; break;
+                default:
+                    System.err.println("Usage: corpus " + USAGE);
+                    return 2;
+            }
+            arg += 2;
+        }
+        if (args.length - arg < 4 || maxWords > MAX_ENTRIES || maxBigrams > MAX_ENTRIES) {
+            System.err.println("Usage: corpus " + USAGE);
+            return 2;
+        }
+        final byte[] classes;
+        try {
+            classes = classify(readWordSeparators(new File(args[arg])));
+        } catch (IllegalArgumentException e) {
+            System.err.println(args[arg] + ": " + e.getMessage());
+            return 1;
+        }
+        final File wordsOutput = new File(args[arg + 1]);
+        final File bigramsOutput = new File(args[arg + 2]);
+        final List<File> corpus = new ArrayList<File>();
+        for (int i = arg + 3; i < args.length; i++) {
+            corpus.add(new File(args[i]));
+        }
+
+        final long start = System.nanoTime();
+        final CorpusCounter counter = new CorpusCounter(classes, maxWords, maxBigrams);
+        final long bytes = counter.count(corpus, threads);
+        final long counted = System.nanoTime();
+        final long tokens = counter.mTokens.get();
+        final String source = tokens + " words of " + corpus.size() + " files";
+        final int words = counter.mWords.write(wordsOutput, maxWords, minCount, source);
+        final int bigrams = counter.mBigrams.write(bigramsOutput, maxBigrams, minCount, source);
+        final long written = System.nanoTime();
+
+        final long countMillis = Math.max(1, (counted - start) / 1000000);
+        System.err.println(bytes / (1 << 20) + " MB, " + tokens + " words, " + threads
+                + " threads: counted in " + countMillis + " ms (" + bytes / 1000 / countMillis
+                + " MB/s), written in " + (written - counted) / 1000000 + " ms");
+        System.err.println("  " + wordsOutput + ": " + words + " words"
+                + counter.mWords.describeError());
+        System.err.println("  " + bigramsOutput + ": " + bigrams + " bigrams"
+                + counter.mBigrams.describeError());
+        return 0;
+    }
+
+    /** The unescaped word_separators string of the strings.xml <var>file</var>. */
+    static String readWordSeparators(File file) throws IOException {
+        final NodeList strings;
+        try {
+            strings = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file)
+                    .getElementsByTagName("string");
+        } catch (ParserConfigurationException e) {
+            throw new IOException(e);
+        } catch (SAXException e) {
+            throw new IOException(e);
+        }
+        for (int i = 0; i < strings.getLength(); i++) {
+            final Element string = (Element) strings.item(i);
+            if ("word_separators".equals(string.getAttribute("name"))) {
+                return KeyboardLayoutCompiler.unescape(string.getTextContent());
+            }
+        }
+        throw new IllegalArgumentException("No word_separators string");
+    }
+
+    /** The class of each ASCII byte, given the <var>separators</var>. */
+    private static byte[] classify(String separators) {
+        final byte[] classes = new byte[128];
+        for (int b = 0; b < 128; b++) {
+            if (b < 0x20 || b == 0x7f) {
+                classes[b] = Character.isWhitespace(b) ? SPACE : BREAK;
+            }
+        }
+        for (int i = 0; i < separators.length(); i++) {
+            final char c = separators.charAt(i);
+            if (c >= 128) {
+                // Counted in UTF-8 bytes, where only ASCII stands alone.
+                throw new IllegalArgumentException("Non-ASCII separator U+"
+                        + Integer.toHexString(c));
+            }
+            classes[c] = Character.isWhitespace(c) ? SPACE : BREAK;
+        }
+        return classes;
+    }
+
+    /** Count all of <var>files</var> using <var>threads</var> workers; returns their size. */
+    private long count(List<File> files, int threads) throws IOException {
+        final List<RandomAccessFile> opened = new ArrayList<RandomAccessFile>();
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final ThreadLocal<Worker> workers = new ThreadLocal<Worker>() {
+            @Override
+            protected Worker initialValue() {
+                return new Worker();
+            }
+        };
+        final List<Future<?>> tasks = new ArrayList<Future<?>>();
+        final List<Worker> allWorkers = new ArrayList<Worker>();
+        long total = 0;
+        try {
+            for (File file : files) {
+                final RandomAccessFile raf = new RandomAccessFile(file, "r");
+                opened.add(raf);
+                final FileChannel channel = raf.getChannel();
+                final long size = channel.size();
+                total += size;
+                long from = 0;
+                while (from < size) {
+                    final long to = chunkEnd(channel, from, size);
+                    final long chunkFrom = from;
+                    tasks.add(pool.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            final Worker worker = workers.get();
+                            synchronized (allWorkers) {
+                                if (!allWorkers.contains(worker)) {
+                                    allWorkers.add(worker);
+                                }
+                            }
+                            try {
+                                worker.count(channel, chunkFrom, to);
+                            } catch (IOException e) {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                    }));
+                    from = to;
+                }
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            throw cause.getCause() instanceof IOException
+                    ? (IOException) cause.getCause() : new IOException(cause);
+        } finally {
+            pool.shutdownNow();
+            for (RandomAccessFile raf : opened) {
+                raf.close();
+            }
+        }
+        for (Worker worker : allWorkers) {
+            worker.merge();
+        }
+        return total;
+    }
+
+    /**
+     * Where the chunk starting at <var>from</var> ends: just after the first
+     * separator {@link #CHUNK_BYTES} on, so that no word is split.
+     */
+    private long chunkEnd(FileChannel channel, long from, long size) throws IOException {
+        long position = from + CHUNK_BYTES;
+        if (position >= size) {
+            return size;
+        }
+        final long limit = Math.min(size, position + MAX_CHUNK_EXTENSION);
+        final ByteBuffer buffer = ByteBuffer.allocate(4096);
+        while (position < limit) {
+            buffer.clear();
+            final int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                final byte b = buffer.get(i);
+                if (b >= 0 && mClasses[b] != WORD) {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return limit;
+    }
+
+    /**
+     * The tables of one worker thread, and the word it is reading.  Words
+     * are counted as byte strings, lower-cased in place when ASCII.
+     */
+    private final class Worker {
+        private final CountTable mLocalWords = new CountTable(1024);
+        private final CountTable mLocalBigrams = new CountTable(1024);
+        private final byte[] mReadBuffer = new byte[READ_BUFFER_BYTES];
+        /** The word being read, then the bigram of the previous word and it. */
+        private final byte[] mWord = new byte[MAX_WORD_BYTES];
+        private final byte[] mBigram = new byte[MAX_WORD_BYTES * 2 + 1];
+        private int mWordLength;
+        private boolean mWordAscii = true;
+        private boolean mWordTooLong;
+        /** Length of the previous word in {@link #mBigram}, 0 if there is none. */
+        private int mPreviousLength;
+        private long mCounted;
+
+        void count(FileChannel channel, long from, long to) throws IOException {
+            final MappedByteBuffer text = channel.map(FileChannel.MapMode.READ_ONLY, from,
+                    to - from);
+            final byte[] classes = mClasses;
+            final byte[] buffer = mReadBuffer;
+            mPreviousLength = 0;
+            while (text.hasRemaining()) {
+                final int n = Math.min(buffer.length, text.remaining());
+                text.get(buffer, 0, n);
+                for (int i = 0; i < n; i++) {
+                    byte b = buffer[i];
+                    final byte type = b >= 0 ? classes[b] : WORD;
+                    if (type == WORD) {
+                        if (mWordLength == MAX_WORD_BYTES) {
+                            mWordTooLong = true;
+                        } else {
+                            if (b >= 'A' && b <= 'Z') {
+                                b += 'a' - 'A';
+                            } else if (b < 0) {
+                                mWordAscii = false;
+                            }
+                            mWord[mWordLength++] = b;
+                        }
+                    } else {
+                        endWord();
+                        if (type == BREAK) {
+                            mPreviousLength = 0;
+                        }
+                    }
+                }
+            }
+            endWord();
+            mTokens.addAndGet(mCounted);
+            mCounted = 0;
+        }
+
+        private void endWord() {
+            int length = mWordLength;
+            if (length == 0) {
+                return;
+            }
+            mWordLength = 0;
+            byte[] word = mWord;
+            if (mWordTooLong || !mWordAscii) {
+                if (mWordTooLong) {
+                    mWordTooLong = false;
+                    mWordAscii = true;
+                    mPreviousLength = 0;
+                    return;
+                }
+                mWordAscii = true;
+                word = new String(mWord, 0, length, StandardCharsets.UTF_8)
+                        .toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8);
+                length = word.length;
+                if (length > MAX_WORD_BYTES) {
+                    mPreviousLength = 0;
+                    return;
+                }
+            }
+            mCounted++;
+            mLocalWords.add(word, 0, length, CountTable.hash(word, 0, length), 1);
+            final byte[] bigram = mBigram;
+            final int previous = mPreviousLength;
+            if (previous > 0) {
+                bigram[previous] = ' ';
+                System.arraycopy(word, 0, bigram, previous + 1, length);
+                final int bigramLength = previous + 1 + length;
+                mLocalBigrams.add(bigram, 0, bigramLength,
+                        CountTable.hash(bigram, 0, bigramLength), 1);
+            }
+            System.arraycopy(word, 0, bigram, 0, length);
+            mPreviousLength = length;
+            if (mLocalBigrams.size() >= LOCAL_ENTRIES || mLocalWords.size() >= LOCAL_ENTRIES) {
+                merge();
+            }
+        }
+
+        void merge() {
+            mWords.merge(mLocalWords);
+            mBigrams.merge(mLocalBigrams);
+            mLocalWords.clear();
+            mLocalBigrams.clear();
+        }
+    }
+
+    /**
+     * A table sharded by the high bits of the key hashes, each shard locked
+     * on its own and pruned to its share of the entries kept.
+     */
+    private static final class Shards {
+        private final CountTable[] mShards = new CountTable[1 << SHARD_BITS];
+        private final int mShardEntries;
+        private final long[] mPruned = new long[mShards.length];
+
+        Shards(int maxEntries) {
+            // With some slack, as keys do not spread exactly evenly.
+            mShardEntries = maxEntries / mShards.length * 5 / 4 + 1;
+            for (int s = 0; s < mShards.length; s++) {
+                mShards[s] = new CountTable(mShardEntries);
+            }
+        }
+
+        /** Add the counts of <var>local</var>, taking each shard's lock once. */
+        void merge(CountTable local) {
+            // Order the entries by shard first.
+            final int size = local.size();
+            final int[] starts = new int[mShards.length + 1];
+            for (int entry = 0; entry < size; entry++) {
+                starts[shard(local.getHash(entry)) + 1]++;
+            }
+            for (int s = 0; s < mShards.length; s++) {
+                starts[s + 1] += starts[s];
+            }
+            final int[] next = Arrays.copyOf(starts, mShards.length);
+            final int[] order = new int[size];
+            for (int entry = 0; entry < size; entry++) {
+                order[next[shard(local.getHash(entry))]++] = entry;
+            }
+            for (int s = 0; s < mShards.length; s++) {
+                if (starts[s] == starts[s + 1]) {
+                    continue;
+                }
+                final CountTable shard = mShards[s];
+                synchronized (shard) {
+                    for (int i = starts[s]; i < starts[s + 1]; i++) {
+                        shard.add(local, order[i]);
+                    }
+                    if (shard.size() > mShardEntries * 2) {
+                        mPruned[s] += shard.prune(mShardEntries);
+                    }
+                }
+            }
+        }
+
+        private static int shard(long hash) {
+            return (int) (hash >>> (64 - SHARD_BITS));
+        }
+
+        /**
+         * Write the <var>max</var> most frequent keys counted at least
+         * <var>minCount</var> times to <var>file</var>, as a word list,
+         * decoding each key only as it is written.  Returns how many were.
+         */
+        int write(File file, int max, int minCount, String source) throws IOException {
+            // Sort (count, entry) pairs packed in longs; an entry is its
+            // shard's number in the high bits and its index in the low ones.
+            int size = 0;
+            for (CountTable shard : mShards) {
+                size += shard.size();
+            }
+            final long[] sorted = new long[size];
+            int n = 0;
+            for (int s = 0; s < mShards.length; s++) {
+                final CountTable shard = mShards[s];
+                for (int entry = 0; entry < shard.size(); entry++) {
+                    final long count = shard.getCount(entry);
+                    if (count >= minCount) {
+                        sorted[n++] = (Math.min(count, (1L << 36) - 1) << 27)
+                                | ((long) s << 21) | entry;
+                    }
+                }
+            }
+            Arrays.sort(sorted, 0, n);
+            final int written = Math.min(n, max);
+            final long maxCount = written > 0 ? sorted[n - 1] >>> 27 : 1;
+            final double scale = maxCount > 1 ? 254 / Math.log(maxCount) : 0;
+
+            final Writer out = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16);
+            try {
+                out.write("# Counted from " + source + ": one \"entry<TAB>frequency\" entry"
+                        + " per line, frequency 1-255.\n");
+                // Keys with the same count are written in key order, and a
+                // run cut short by max keeps its first keys in that order, so
+                // that the output does not depend on the order the chunks ran
+                // in, as long as nothing was pruned.
+                final List<String> run = new ArrayList<String>();
+                int i = n - 1;
+                int left = written;
+                while (left > 0) {
+                    final long count = sorted[i] >>> 27;
+                    run.clear();
+                    for (; i >= 0 && sorted[i] >>> 27 == count; i--) {
+                        final CountTable shard = mShards[(int) (sorted[i] >>> 21) & 0x3f];
+                        run.add(shard.getKey((int) sorted[i] & 0x1fffff));
+                    }
+                    Collections.sort(run);
+                    final String frequency = "\t"
+                            + (1 + (int) Math.round(Math.log(count) * scale)) + "\n";
+                    for (int k = 0; k < run.size() && left > 0; k++, left--) {
+                        out.write(run.get(k));
+                        out.write(frequency);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            return written;
+        }
+
+        /**
+         * How far off the counts may be because of pruning.  A key may be
+         * dropped by every pruning of its shard, each time losing at most
+         * the highest count that pruning dropped, so the bound is the
+         * largest sum of those over the shards.
+         */
+        String describeError() {
+            long pruned = 0;
+            for (long p : mPruned) {
+                pruned = Math.max(pruned, p);
+            }
+            return pruned > 0 ? ", counts may be low by up to " + pruned : ", exact counts";
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.example.android.softkeyboard;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Counts of byte string keys, in primitive arrays: an open addressing
+ * table of entry numbers over parallel arrays of hashes, counts and key
+ * locations, with the key bytes themselves packed one after the other in
+ * a single arena.  There is no object per key, so tens of millions of
+ * entries fit in a modest heap, and tables are merged by walking arrays.
+ *
+ * <p>Memory is bounded by {@link #prune}, which keeps only the most
+ * frequent keys.  Not thread safe.
+ */
+final class CountTable {
+
+    /** Longest key, so that lengths fit in a byte. */
+    static final int MAX_KEY_BYTES = 255;
+
+    private static final long FNV_64_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_64_PRIME = 0x100000001b3L;
+
+    /** Entry number plus one of each slot, 0 if it is free. */
+    private int[] mSlots;
+    private long[] mHashes;
+    private long[] mCounts;
+    private int[] mOffsets;
+    private byte[] mLengths;
+    private byte[] mArena;
+    private int mArenaSize;
+    private int mSize;
+
+    CountTable(int expectedSize) {
+        final int capacity = Math.max(16, Integer.highestOneBit(expectedSize) << 1);
+        mSlots = new int[capacity * 2];
+        mHashes = new long[capacity];
+        mCounts = new long[capacity];
+        mOffsets = new int[capacity];
+        mLengths = new byte[capacity];
+        mArena = new byte[capacity * 8];
+    }
+
+    /** The hash {@link #add} expects for a key: FNV-1a, then mixed. */
+    static long hash(byte[] key, int offset, int length) {
+        long h = FNV_64_OFFSET_BASIS;
+        for (int i = offset; i < offset + length; i++) {
+            h = (h ^ (key[i] & 0xff)) * FNV_64_PRIME;
+        }
+        // FNV's high bits mix poorly, and shards are picked by them.
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /** Roughly the heap used by the table. */
+    long getByteSize() {
+        return mSlots.length * 4L + mHashes.length * (8L + 8 + 4 + 1) + mArena.length;
+    }
+
+    long getCount(int entry) {
+        return mCounts[entry];
+    }
+
+    long getHash(int entry) {
+        return mHashes[entry];
+    }
+
+    String getKey(int entry) {
+        return new String(mArena, mOffsets[entry], mLengths[entry] & 0xff,
+                StandardCharsets.UTF_8);
+    }
+
+    /** Add <var>count</var> to key <code>key[offset, offset + length)</code>. */
+    void add(byte[] key, int offset, int length, long hash, long count) {
+        final int mask = mSlots.length - 1;
+        int slot = (int) hash & mask;
+        int entry;
+        while ((entry = mSlots[slot] - 1) >= 0) {
+            if (mHashes[entry] == hash && equals(entry, key, offset, length)) {
+                mCounts[entry] += count;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (mSize == mHashes.length) {
+            grow();
+            add(key, offset, length, hash, count);
+            return;
+        }
+        if (mArenaSize + length > mArena.length) {
+            mArena = Arrays.copyOf(mArena, Math.max(mArena.length * 2, mArenaSize + length));
+        }
+        System.arraycopy(key, offset, mArena, mArenaSize, length);
+        entry = mSize++;
+        mHashes[entry] = hash;
+        mCounts[entry] = count;
+        mOffsets[entry] = mArenaSize;
+        mLengths[entry] = (byte) length;
+        mArenaSize += length;
+        mSlots[slot] = entry + 1;
+    }
+
+    /** Add the count of <var>entry</var> of <var>other</var> to this table. */
+    void add(CountTable other, int entry) {
+        add(other.mArena, other.mOffsets[entry], other.mLengths[entry] & 0xff,
+                other.mHashes[entry], other.mCounts[entry]);
+    }
+
+    private boolean equals(int entry, byte[] key, int offset, int length) {
+        if ((mLengths[entry] & 0xff) != length) {
+            return false;
+        }
+        final int start = mOffsets[entry];
+        for (int i = 0; i < length; i++) {
+            if (mArena[start + i] != key[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void grow() {
+        final int capacity = mHashes.length * 2;
+        mHashes = Arrays.copyOf(mHashes, capacity);
+        mCounts = Arrays.copyOf(mCounts, capacity);
+        mOffsets = Arrays.copyOf(mOffsets, capacity);
+        mLengths = Arrays.copyOf(mLengths, capacity);
+        mSlots = new int[capacity * 2];
+        rehash();
+    }
+
+    private void rehash() {
+        Arrays.fill(mSlots, 0);
+        final int mask = mSlots.length - 1;
+        for (int entry = 0; entry < mSize; entry++) {
+            int slot = (int) mHashes[entry] & mask;
+            while (mSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            mSlots[slot] = entry + 1;
+        }
+    }
+
+    /**
+     * Keep only the <var>keep</var> keys with the highest counts, those of
+     * equal counts in key order, compacting the arena.  Returns the highest
+     * count dropped, 0 if none was: a key counted again after being dropped
+     * is undercounted by up to that much each time.
+     */
+    long prune(int keep) {
+        if (mSize <= keep) {
+            return 0;
+        }
+        final long[] sorted = Arrays.copyOf(mCounts, mSize);
+        Arrays.sort(sorted);
+        final long threshold = sorted[mSize - keep];
+        // Keys counted above the threshold all stay; the first ties in key
+        // order fill what is left, whatever order the keys were added in.
+        final int ties = keep - (mSize - upperBound(sorted, threshold));
+        final Integer[] tied = new Integer[upperBound(sorted, threshold)
+                - upperBound(sorted, threshold - 1)];
+        int t = 0;
+        for (int entry = 0; entry < mSize; entry++) {
+            if (mCounts[entry] == threshold) {
+                tied[t++] = entry;
+            }
+        }
+        Arrays.sort(tied, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return compareKeys(a, b);
+            }
+        });
+        final boolean[] keptTies = new boolean[mSize];
+        for (int i = 0; i < ties; i++) {
+            keptTies[tied[i]] = true;
+        }
+        int kept = 0;
+        int arenaSize = 0;
+        for (int entry = 0; entry < mSize; entry++) {
+            final long count = mCounts[entry];
+            if (count < threshold || (count == threshold && !keptTies[entry])) {
+                continue;
+            }
+            final int length = mLengths[entry] & 0xff;
+            System.arraycopy(mArena, mOffsets[entry], mArena, arenaSize, length);
+            mHashes[kept] = mHashes[entry];
+            mCounts[kept] = count;
+            mOffsets[kept] = arenaSize;
+            mLengths[kept] = (byte) length;
+            arenaSize += length;
+            kept++;
+        }
+        mSize = kept;
+        mArenaSize = arenaSize;
+        rehash();
+        return threshold;
+    }
+
+    /** Compare the keys of two entries as unsigned bytes, which is code point order. */
+    private int compareKeys(int a, int b) {
+        final int lengthA = mLengths[a] & 0xff;
+        final int lengthB = mLengths[b] & 0xff;
+        final int offsetA = mOffsets[a];
+        final int offsetB = mOffsets[b];
+        for (int i = 0; i < Math.min(lengthA, lengthB); i++) {
+            final int diff = (mArena[offsetA + i] & 0xff) - (mArena[offsetB + i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return lengthA - lengthB;
+    }
+
+    /** Index of the first element of sorted <var>values</var> above <var>value</var>. */
+    private static int upperBound(long[] values, long value) {
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (values[mid] <= value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    void clear() {
+        Arrays.fill(mSlots, 0);
+        mSize = 0;
+        mArenaSize = 0;
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.softkeyboard;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * Compiles keyboard layout XML, as the framework's <code>Keyboard</code>
+ * reads it, into {@link KeyboardLayout}s.  Each <code>res/xml/name.xml</code>
+ * given is written to <code>layout_name.kbd</code> in the output directory,
+ * which the app's build adds as a raw resource directory.
+ *
+ * <p>Attribute values are interpreted as aapt and <code>Keyboard</code>
+ * would: codes are an integer or comma separated integers, or the first
+ * character of the label if missing; labels lose their backslash escapes;
+ * sizes are fractions of the display ("10%p"), dimensions ("0px", "50dip")
+ * or dimension resources ("@dimen/key_height").  An attribute the loader
+ * does not support fails the build rather than being dropped.
+ */
+final class KeyboardLayoutCompiler {
+
+    static final String USAGE = "<output directory> <layout xml>...";
+
+    private static final String ANDROID_NS = "http://schemas.android.com/apk/res/android";
+
+    // Keyboard.EDGE_*.
+    private static final int EDGE_LEFT = 1;
+    private static final int EDGE_RIGHT = 2;
+    private static final int EDGE_TOP = 4;
+    private static final int EDGE_BOTTOM = 8;
+
+    private static final Pattern FRACTION = Pattern.compile("(-?[0-9.]+)%p?");
+    private static final Pattern DIMENSION = Pattern.compile("(-?[0-9.]+)(px|dip|dp|sp|pt|in|mm)");
+    private static final Pattern REFERENCE = Pattern.compile("@(\\w+)/(\\w+)");
+
+    private KeyboardLayoutCompiler() {
+    }
+
+    static int run(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: layouts " + USAGE);
+            return 2;
+        }
+        final File outputDir = new File(args[0]);
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("Cannot create " + outputDir);
+        }
+        for (int i = 1; i < args.length; i++) {
+            final File input = new File(args[i]);
+            final String name = input.getName().replaceFirst("\\.xml$", "");
+            final KeyboardLayout layout;
+            try {
+                layout = compile(input);
+            } catch (IllegalArgumentException e) {
+                System.err.println(input + ": " + e.getMessage());
+                return 1;
+            }
+            final File output = new File(outputDir, "layout_" + name + ".kbd");
+            final OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+            try {
+                layout.write(out);
+            } finally {
+                out.close();
+            }
+            int keys = 0;
+            for (KeyboardLayout.Row row : layout.rows) {
+                keys += row.keys.size();
+            }
+            System.err.println(output + ": " + layout.rows.size() + " rows, " + keys + " keys, "
+                    + output.length() + " bytes");
+        }
+        return 0;
+    }
+
+    static KeyboardLayout compile(File input) throws IOException {
+        final Document document;
+        try {
+            final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            document = factory.newDocumentBuilder().parse(input);
+        } catch (ParserConfigurationException e) {
+            throw new IOException(e);
+        } catch (SAXException e) {
+            throw new IOException(e);
+        }
+        final Element root = document.getDocumentElement();
+        if (!"Keyboard".equals(root.getTagName())) {
+            throw new IllegalArgumentException(
+                    "Not a keyboard layout: <" + root.getTagName() + ">");
+        }
+
+        final KeyboardLayout layout = new KeyboardLayout();
+        final NamedNodeMap keyboardAttributes = root.getAttributes();
+        for (int a = 0; a < keyboardAttributes.getLength(); a++) {
+            final Attr attr = (Attr) keyboardAttributes.item(a);
+            if (!ANDROID_NS.equals(attr.getNamespaceURI())) continue;
+            final String value = attr.getValue();
+            switch (attr.getLocalName()) {
+                case "keyWidth": layout.keyWidth = parseDimension(value); break;
+                case "keyHeight": layout.keyHeight = parseDimension(value); break;
+                case "horizontalGap": layout.horizontalGap = parseDimension(value); break;
+                case "verticalGap": layout.verticalGap = parseDimension(value); break;
+                default: throw unsupported(root, attr);
+            }
+        }
+
+        for (Node r = root.getFirstChild(); r != null; r = r.getNextSibling()) {
+            if (!(r instanceof Element)) continue;
+            final Element rowElement = (Element) r;
+            if (!"Row".equals(rowElement.getTagName())) {
+                throw new IllegalArgumentException("Unexpected <" + rowElement.getTagName() + ">");
+            }
+            final KeyboardLayout.Row row = new KeyboardLayout.Row();
+            final NamedNodeMap rowAttributes = rowElement.getAttributes();
+            for (int a = 0; a < rowAttributes.getLength(); a++) {
+                final Attr attr = (Attr) rowAttributes.item(a);
+                if (!ANDROID_NS.equals(attr.getNamespaceURI())) continue;
+                final String value = attr.getValue();
+                switch (attr.getLocalName()) {
+                    case "keyWidth": row.keyWidth = parseDimension(value); break;
+                    case "keyHeight": row.keyHeight = parseDimension(value); break;
+                    case "horizontalGap": row.horizontalGap = parseDimension(value); break;
+                    case "verticalGap": row.verticalGap = parseDimension(value); break;
+                    case "rowEdgeFlags": row.rowEdgeFlags = parseEdgeFlags(value); break;
+                    case "keyboardMode": row.mode = Integer.decode(value); break;
+                    default: throw unsupported(rowElement, attr);
+                }
+            }
+            for (Node k = rowElement.getFirstChild(); k != null; k = k.getNextSibling()) {
+                if (!(k instanceof Element)) continue;
+                row.keys.add(compileKey((Element) k));
+            }
+            layout.rows.add(row);
+        }
+        return layout;
+    }
+
+    private static KeyboardLayout.Key compileKey(Element element) {
+        if (!"Key".equals(element.getTagName())) {
+            throw new IllegalArgumentException("Unexpected <" + element.getTagName() + ">");
+        }
+        final KeyboardLayout.Key key = new KeyboardLayout.Key();
+        final NamedNodeMap attributes = element.getAttributes();
+        for (int a = 0; a < attributes.getLength(); a++) {
+            final Attr attr = (Attr) attributes.item(a);
+            if (!ANDROID_NS.equals(attr.getNamespaceURI())) continue;
+            final String value = attr.getValue();
+            switch (attr.getLocalName()) {
+                case "codes": key.codes = parseCodes(value); break;
+                case "keyWidth": key.width = parseDimension(value); break;
+                case "keyHeight": key.height = parseDimension(value); break;
+                case "horizontalGap": key.gap = parseDimension(value); break;
+                case "keyEdgeFlags": key.edgeFlags = parseEdgeFlags(value); break;
+                case "isRepeatable":
+                    key.flags = flag(key.flags, KeyboardLayout.FLAG_REPEATABLE, value);
+                    break;
+                case "isModifier":
+                    key.flags = flag(key.flags, KeyboardLayout.FLAG_MODIFIER, value);
+                    break;
+                case "isSticky":
+                    key.flags = flag(key.flags, KeyboardLayout.FLAG_STICKY, value);
+                    break;
+                case "keyLabel": key.label = unescape(value); break;
+                case "keyIcon": key.icon = parseReference(value, "drawable"); break;
+                case "iconPreview": key.iconPreview = parseReference(value, "drawable"); break;
+                case "popupCharacters": key.popupCharacters = unescape(value); break;
+                case "popupKeyboard": key.popupKeyboard = parseReference(value, "xml"); break;
+                case "keyOutputText": key.outputText = unescape(value); break;
+                default: throw unsupported(element, attr);
+            }
+        }
+        if (key.codes == null) {
+            if (key.label == null || key.label.length() == 0) {
+                throw new IllegalArgumentException("Key without codes or label");
+            }
+            key.codes = new int[] { key.label.charAt(0) };
+        }
+        return key;
+    }
+
+    private static IllegalArgumentException unsupported(Element element, Attr attr) {
+        return new IllegalArgumentException("Unsupported attribute " + attr.getName()
+                + " on <" + element.getTagName() + ">");
+    }
+
+    private static int flag(int flags, int flag, String value) {
+        if ("true".equals(value)) return flags | flag;
+        if ("false".equals(value)) return flags & ~flag;
+        throw new IllegalArgumentException("Not a boolean: " + value);
+    }
+
+    private static int[] parseCodes(String value) {
+        final String[] parts = value.split(",");
+        final int[] codes = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            codes[i] = Integer.decode(parts[i].trim());
+        }
+        return codes;
+    }
+
+    private static int parseEdgeFlags(String value) {
+        int flags = 0;
+        for (String part : value.split("\\|")) {
+            switch (part.trim()) {
+                case "left": flags |= EDGE_LEFT; break;
+                case "right": flags |= EDGE_RIGHT; break;
+                case "top": flags |= EDGE_TOP; break;
+                case "bottom": flags |= EDGE_BOTTOM; break;
+                default: throw new IllegalArgumentException("Unknown edge flag " + part);
+            }
+        }
+        return flags;
+    }
+
+    private static KeyboardLayout.Dimension parseDimension(String value) {
+        Matcher m = FRACTION.matcher(value);
+        if (m.matches()) {
+            return new KeyboardLayout.Dimension(KeyboardLayout.KIND_FRACTION,
+                    Float.parseFloat(m.group(1)) / 100, 0, null);
+        }
+        m = DIMENSION.matcher(value);
+        if (m.matches()) {
+            final int unit;
+            switch (m.group(2)) {
+                case "px": unit = KeyboardLayout.UNIT_PX; break;
+                case "sp": unit = KeyboardLayout.UNIT_SP; break;
+                case "pt": unit = KeyboardLayout.UNIT_PT; break;
+                case "in": unit = KeyboardLayout.UNIT_IN; break;
+                case "mm": unit = KeyboardLayout.UNIT_MM; break;
+                default: unit = KeyboardLayout.UNIT_DIP; break;
+            }
+            return new KeyboardLayout.Dimension(KeyboardLayout.KIND_DIMENSION,
+                    Float.parseFloat(m.group(1)), unit, null);
+        }
+        return new KeyboardLayout.Dimension(KeyboardLayout.KIND_RESOURCE, 0, 0,
+                parseReference(value, "dimen"));
+    }
+
+    /** The name in a reference like "@drawable/name", which must be of <var>type</var>. */
+    private static String parseReference(String value, String type) {
+        final Matcher m = REFERENCE.matcher(value);
+        if (!m.matches() || !type.equals(m.group(1))) {
+            throw new IllegalArgumentException("Not a " + type + " reference: " + value);
+        }
+        return m.group(2);
+    }
+
+    /** Undo aapt's backslash escapes: \n, \t, \\uXXXX, and \ before anything else. */
+    static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        final StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c != '\\' || i + 1 == value.length()) {
+                sb.append(c);
+                continue;
+            }
+            final char next = value.charAt(++i);
+            if (next == 'n') {
+                sb.append('\n');
+            } else if (next == 't') {
+                sb.append('\t');
+            } else if (next == 'u' && i + 4 < value.length()) {
+                sb.append((char) Integer.parseInt(value.substring(i + 1, i + 5), 16));
+                i += 4;
+            } else {
+                sb.append(next);
+            }
+        }
+        return sb.toString();
+    }
+}
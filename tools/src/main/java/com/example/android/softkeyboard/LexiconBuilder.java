@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.softkeyboard;
+
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+import org.json.JSONException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Precomputes the {@link ShapeTable} of a word list, so that the keyboard
+ * can load it instead of describing every word at start-up.  Drop the
+ * output into the app's raw resources as <code>shapes_&lt;locale&gt;</code>,
+ * e.g. <code>res/raw/shapes_en_us.bin</code>.
+ *
+ * <p>The sorted word list is split into fork-join tasks; each worker thread
+ * describes its words with its own {@link ShapeDescriptor}, whose geometry
+ * buffers it reuses from word to word.  Every word's result goes to its own
+ * slot of the table, so the output is the same, byte for byte, whatever the
+ * number of threads or the order they run in.
+ */
+final class LexiconBuilder {
+
+    static final String USAGE = "[-j threads] <word list> <output shape table>";
+
+    /** Words described by a task without splitting it further. */
+    private static final int LEAF_SIZE = 2048;
+
+    private LexiconBuilder() {
+    }
+
+    static int run(String[] args) throws IOException, JSONException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int arg = 0;
+        if (args.length > 1 && "-j".equals(args[0])) {
+            threads = Integer.parseInt(args[1]);
+            arg = 2;
+        }
+        if (args.length - arg != 2) {
+            System.err.println("Usage: shapes " + USAGE);
+            return 2;
+        }
+        final File input = new File(args[arg]);
+        final File output = new File(args[arg + 1]);
+
+        final long start = System.nanoTime();
+        final ShapeTable table;
+        final InputStream in = new BufferedInputStream(new FileInputStream(input));
+        try {
+            table = ShapeTable.fromWordList(in);
+        } finally {
+            in.close();
+        }
+        final long parsed = System.nanoTime();
+
+        build(table, KeyGeometry.fromJson(KeyGeometry.QWERTY_JSON), threads);
+        final long built = System.nanoTime();
+
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(output), 1 << 16);
+        try {
+            table.write(out);
+        } finally {
+            out.close();
+        }
+        final long written = System.nanoTime();
+
+        System.err.println(table.size() + " words, " + threads + " threads: read "
+                + (parsed - start) / 1000000 + " ms, shapes "
+                + (built - parsed) / 1000000 + " ms, write "
+                + (written - built) / 1000000 + " ms");
+        return 0;
+    }
+
+    /** Describe every word of <var>table</var> using <var>threads</var> workers. */
+    static void build(ShapeTable table, final KeyGeometry geometry, int threads) {
+        final ThreadLocal<ShapeDescriptor> descriptors = new ThreadLocal<ShapeDescriptor>() {
+            @Override
+            protected ShapeDescriptor initialValue() {
+                return new ShapeDescriptor(geometry, new GeometryFactory());
+            }
+        };
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new DescribeTask(table, descriptors, 0, table.size()));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static final class DescribeTask extends RecursiveAction {
+        // Never serialized; RecursiveAction is Serializable only by inheritance.
+        private static final long serialVersionUID = 1L;
+
+        private final ShapeTable mTable;
+        private final ThreadLocal<ShapeDescriptor> mDescriptors;
+        private final int mFrom;
+        private final int mTo;
+
+        DescribeTask(ShapeTable table, ThreadLocal<ShapeDescriptor> descriptors,
+                int from, int to) {
+            mTable = table;
+            mDescriptors = descriptors;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom <= LEAF_SIZE) {
+                mTable.compute(mDescriptors.get(), mFrom, mTo);
+                return;
+            }
+            final int mid = (mFrom + mTo) >>> 1;
+            invokeAll(new DescribeTask(mTable, mDescriptors, mFrom, mid),
+                    new DescribeTask(mTable, mDescriptors, mid, mTo));
+        }
+    }
+}
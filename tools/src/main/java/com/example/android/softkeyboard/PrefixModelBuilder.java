@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.example.android.softkeyboard;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Builds the {@link PrefixModel} of a word list, so that the keyboard can
+ * load it instead of building it.  Drop the output into the app's raw
+ * resources as <code>prefixes_&lt;locale&gt;</code>, e.g.
+ * <code>res/raw/prefixes_en_us.bin</code>.
+ */
+final class PrefixModelBuilder {
+
+    static final String USAGE = "<word list> <output prefix model>";
+
+    private PrefixModelBuilder() {
+    }
+
+    static int run(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: prefixes " + USAGE);
+            return 2;
+        }
+        final ShapeTable table;
+        final InputStream in = new BufferedInputStream(new FileInputStream(args[0]));
+        try {
+            table = ShapeTable.fromWordList(in);
+        } finally {
+            in.close();
+        }
+        final PrefixModel model = PrefixModel.build(table.getWords(), table.getFrequencies());
+        final File output = new File(args[1]);
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+        try {
+            model.write(out);
+        } finally {
+            out.close();
+        }
+        System.err.println(output + ": " + table.size() + " words, "
+                + model.getStateCount() + " prefixes, " + output.length() + " bytes");
+        return 0;
+    }
+}
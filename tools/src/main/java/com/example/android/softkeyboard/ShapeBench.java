@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.softkeyboard;
+
+import com.vividsolutions.jts.algorithm.distance.DiscreteHausdorffDistance;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+
+import org.json.JSONException;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Times the last stage of shape matching, the Hausdorff distance between
+ * the typed path and each candidate's, two ways: with a JTS geometry built
+ * per candidate, as the keyboard used to, and with the batch kernel of
+ * {@link KeyPathBlock}.  Every word of the list with a shape is typed in
+ * turn, and measured against the nearest shapes the {@link ShapeIndex}
+ * proposes for it, as on the keyboard.
+ *
+ * <p>Each way runs for a number of warm-up rounds first, so the JIT has
+ * compiled it, then the best of the timed rounds is reported, with the
+ * largest difference between the distances the two ways compute.
+ */
+final class ShapeBench {
+
+    static final String USAGE = "<word list> [rounds]";
+
+    /** Candidates per typed word, as many as the keyboard measures. */
+    private static final int CANDIDATES = 32;
+    private static final int BLOCK_SIZE = 8;
+    private static final int WARM_UP_ROUNDS = 3;
+    private static final double DENSIFY_FRACTION = 1.0 / KeyPathBlock.SUBDIVISIONS;
+
+    private ShapeBench() {
+    }
+
+    static int run(String[] args) throws IOException, JSONException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: shapebench " + USAGE);
+            return 2;
+        }
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        final ShapeTable table;
+        final InputStream in = new BufferedInputStream(new FileInputStream(args[0]));
+        try {
+            table = ShapeTable.fromWordList(in);
+        } finally {
+            in.close();
+        }
+        final KeyGeometry geometry = KeyGeometry.fromJson(KeyGeometry.QWERTY_JSON);
+        LexiconBuilder.build(table, geometry, 1);
+        final ShapeIndex index = table.buildIndex();
+        final String[] words = table.getWords();
+
+        // The queries: every word with a shape, and the candidates proposed for it.
+        final GeometryFactory factory = new GeometryFactory();
+        final ShapeDescriptor descriptor = new ShapeDescriptor(geometry, factory);
+        final float[] shape = new float[ShapeDescriptor.SIZE];
+        final float[] distances = new float[CANDIDATES];
+        final int[] typed = new int[words.length];
+        final int[][] candidates = new int[words.length][];
+        int queries = 0;
+        int pairs = 0;
+        for (int w = 0; w < words.length; w++) {
+            if (!descriptor.compute(words[w], shape, 0)) continue;
+            final int[] found = new int[CANDIDATES];
+            final int count = index.query(shape, found, distances);
+            typed[queries] = w;
+            candidates[queries] = Arrays.copyOf(found, count);
+            queries++;
+            pairs += count;
+        }
+
+        final double[] jtsDistances = new double[pairs];
+        final double[] blockDistances = new double[pairs];
+        long jtsBest = Long.MAX_VALUE;
+        long blockBest = Long.MAX_VALUE;
+        for (int round = 0; round < WARM_UP_ROUNDS + rounds; round++) {
+            final long start = System.nanoTime();
+            measureJts(factory, geometry, words, typed, candidates, queries, jtsDistances);
+            final long middle = System.nanoTime();
+            measureBlocks(geometry, words, typed, candidates, queries, blockDistances);
+            final long end = System.nanoTime();
+            if (round >= WARM_UP_ROUNDS) {
+                jtsBest = Math.min(jtsBest, middle - start);
+                blockBest = Math.min(blockBest, end - middle);
+            }
+        }
+
+        double maxDifference = 0;
+        for (int i = 0; i < pairs; i++) {
+            maxDifference = Math.max(maxDifference,
+                    Math.abs(jtsDistances[i] - blockDistances[i]));
+        }
+        System.err.println(queries + " typed words, " + pairs + " distances, best of "
+                + rounds + " rounds");
+        System.err.printf("  JTS per candidate: %8.1f ns/distance%n", (double) jtsBest / pairs);
+        System.err.printf("  KeyPathBlock:      %8.1f ns/distance (%.1fx)%n",
+                (double) blockBest / pairs, (double) jtsBest / blockBest);
+        System.err.printf("  largest difference: %.2e keys%n", maxDifference);
+        return 0;
+    }
+
+    private static void measureJts(GeometryFactory factory, KeyGeometry geometry,
+            String[] words, int[] typed, int[][] candidates, int queries, double[] out) {
+        int o = 0;
+        for (int q = 0; q < queries; q++) {
+            final LineString typedPath = buildPath(factory, geometry, words[typed[q]]);
+            for (int c : candidates[q]) {
+                out[o++] = DiscreteHausdorffDistance.distance(typedPath,
+                        buildPath(factory, geometry, words[c]), DENSIFY_FRACTION);
+            }
+        }
+    }
+
+    private static void measureBlocks(KeyGeometry geometry, String[] words, int[] typed,
+            int[][] candidates, int queries, double[] out) {
+        final KeyPathBlock typedPath = new KeyPathBlock(geometry, 1, 16);
+        final KeyPathBlock block = new KeyPathBlock(geometry, BLOCK_SIZE, BLOCK_SIZE * 12);
+        final float[] distances = new float[BLOCK_SIZE];
+        int o = 0;
+        for (int q = 0; q < queries; q++) {
+            typedPath.clear();
+            typedPath.add(typed[q], words[typed[q]]);
+            final int[] found = candidates[q];
+            for (int from = 0; from < found.length; from += BLOCK_SIZE) {
+                block.clear();
+                final int to = Math.min(from + BLOCK_SIZE, found.length);
+                for (int i = from; i < to; i++) {
+                    block.add(found[i], words[found[i]]);
+                }
+                block.distancesTo(typedPath, 0, distances);
+                for (int i = 0; i < block.size(); i++) {
+                    out[o++] = distances[i];
+                }
+            }
+        }
+    }
+
+    /** The key path of <var>word</var> as the keyboard used to build it. */
+    private static LineString buildPath(GeometryFactory factory, KeyGeometry geometry,
+            String word) {
+        final Coordinate[] coordinates = new Coordinate[word.length()];
+        int points = 0;
+        for (int i = 0; i < word.length(); i++) {
+            final char c = word.charAt(i);
+            final double x = geometry.getX(c);
+            final double y = geometry.getY(c);
+            if (points > 0 && coordinates[points - 1].x == x && coordinates[points - 1].y == y) {
+                continue;
+            }
+            coordinates[points++] = new Coordinate(x, y);
+        }
+        final Coordinate[] path = new Coordinate[points];
+        System.arraycopy(coordinates, 0, path, 0, points);
+        return factory.createLineString(path);
+    }
+}
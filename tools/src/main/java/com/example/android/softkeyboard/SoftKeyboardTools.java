@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.softkeyboard;
+
+import java.util.Arrays;
+
+/**
+ * Entry point of the build machine tools: the first argument names the
+ * tool, the rest are passed on to it.
+ */
+public final class SoftKeyboardTools {
+
+    private SoftKeyboardTools() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            usage();
+            return;
+        }
+        final String[] toolArgs = Arrays.copyOfRange(args, 1, args.length);
+        switch (args[0]) {
+            case "shapes":
+                System.exit(LexiconBuilder.run(toolArgs));
+                break;
+            case "corpus":
+                System.exit(CorpusCounter.run(toolArgs));
+                break;
+            case "layouts":
+                System.exit(KeyboardLayoutCompiler.run(toolArgs));
+                break;
+            case "shapebench":
+                System.exit(ShapeBench.run(toolArgs));
+                break;
+            case "prefixes":
+                System.exit(PrefixModelBuilder.run(toolArgs));
+                break;
+            case "symbols":
+                System.exit(SymbolIndexBuilder.run(toolArgs));
+                break;
+            default:
+                usage();
+                System.exit(2);
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: SoftKeyboardTools <tool> [args...]");
+        System.err.println("  shapes  " + LexiconBuilder.USAGE);
+        System.err.println("  symbols " + SymbolIndexBuilder.USAGE);
+        System.err.println("  prefixes " + PrefixModelBuilder.USAGE);
+        System.err.println("  layouts " + KeyboardLayoutCompiler.USAGE);
+        System.err.println("  corpus  " + CorpusCounter.USAGE);
+        System.err.println("  shapebench " + ShapeBench.USAGE);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2008-2009 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.softkeyboard;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Writes the {@link SymbolIndex} of the symbols and emoji offered by symbol
+ * search, named as by {@link Character#getName}, so the Unicode version is
+ * that of the JDK running the tool.  So that the committed index can be
+ * built again byte for byte, the tool only runs on {@link #JDK_VERSION}.
+ * Drop the output into the app as <code>res/raw/symbol_index.idx</code>.
+ *
+ * <p>Only blocks that the fonts of the platform versions the app runs on
+ * (API 14 to 21, Unicode 6) mostly cover are offered; symbols added to
+ * them later are dropped at run time by {@link SymbolSearch} when the
+ * device cannot draw them.
+ */
+final class SymbolIndexBuilder {
+
+    /** The JDK the committed index was built with: its Unicode version is 13. */
+    static final String JDK_VERSION = "17";
+
+    static final String USAGE = "<output symbol index>, run on JDK " + JDK_VERSION;
+
+    /**
+     * The code point ranges offered, most wanted first: symbols are ranked
+     * by the range they are in, then by code point.
+     */
+    private static final int[][] RANGES = {
+        { 0x1F600, 0x1F64F }, // Emoticons
+        { 0x1F300, 0x1F5FF }, // Miscellaneous Symbols and Pictographs
+        { 0x1F680, 0x1F6FF }, // Transport and Map Symbols
+        { 0x2600, 0x26FF },   // Miscellaneous Symbols
+        { 0x2700, 0x27BF },   // Dingbats
+        { 0x2190, 0x21FF },   // Arrows
+        { 0x20A0, 0x20CF },   // Currency Symbols
+        { 0x00A1, 0x00BF },   // Latin-1 punctuation and symbols
+        { 0x00D7, 0x00D7 },
+        { 0x00F7, 0x00F7 },
+        { 0x2010, 0x205E },   // General Punctuation
+        { 0x2200, 0x22FF },   // Mathematical Operators
+        { 0x2100, 0x214F },   // Letterlike Symbols
+        { 0x2150, 0x218B },   // Number Forms
+        { 0x2070, 0x209C },   // Superscripts and Subscripts
+        { 0x0391, 0x03C9 },   // Greek letters
+        { 0x25A0, 0x25FF },   // Geometric Shapes
+        { 0x2300, 0x23FF },   // Miscellaneous Technical
+        { 0x2B00, 0x2BFF },   // Miscellaneous Symbols and Arrows
+        { 0x2460, 0x24FF },   // Enclosed Alphanumerics
+        { 0x27C0, 0x27EF },   // Miscellaneous Mathematical Symbols-A
+        { 0x27F0, 0x27FF },   // Supplemental Arrows-A
+        { 0x2900, 0x297F },   // Supplemental Arrows-B
+        { 0x1F100, 0x1F1FF }, // Enclosed Alphanumeric Supplement
+    };
+
+    /** Name words nobody searches by. */
+    private static final Set<String> STOP_WORDS = new HashSet<String>(Arrays.asList(
+            "a", "an", "and", "for", "in", "of", "on", "or", "the", "to", "with"));
+
+    private SymbolIndexBuilder() {
+    }
+
+    static int run(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: symbols " + USAGE);
+            return 2;
+        }
+        final String jdk = System.getProperty("java.specification.version");
+        if (!JDK_VERSION.equals(jdk)) {
+            System.err.println("symbols: names depend on the JDK's Unicode version;"
+                    + " run on JDK " + JDK_VERSION + ", not " + jdk);
+            return 1;
+        }
+        final List<String> symbols = new ArrayList<String>();
+        final SortedMap<String, List<Integer>> keywords = new TreeMap<String, List<Integer>>();
+        for (int[] range : RANGES) {
+            for (int codePoint = range[0]; codePoint <= range[1]; codePoint++) {
+                final String name = Character.getName(codePoint);
+                if (name == null || !isOffered(codePoint)) continue;
+                final int id = symbols.size();
+                symbols.add(new String(Character.toChars(codePoint)));
+                for (String word : name.toLowerCase(Locale.ROOT).split("[ \\-]+")) {
+                    if (word.length() == 0 || STOP_WORDS.contains(word)) continue;
+                    List<Integer> ids = keywords.get(word);
+                    if (ids == null) {
+                        ids = new ArrayList<Integer>();
+                        keywords.put(word, ids);
+                    }
+                    // Ids only grow, so each list stays sorted; a name may
+                    // repeat a word.
+                    if (ids.isEmpty() || ids.get(ids.size() - 1) != id) {
+                        ids.add(id);
+                    }
+                }
+            }
+        }
+
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(args[0]));
+        try {
+            SymbolIndex.write(out, symbols, keywords);
+        } finally {
+            out.close();
+        }
+        System.err.println(symbols.size() + " symbols, " + keywords.size() + " keywords");
+        return 0;
+    }
+
+    private static boolean isOffered(int codePoint) {
+        switch (Character.getType(codePoint)) {
+            case Character.UNASSIGNED:
+            case Character.CONTROL:
+            case Character.FORMAT:
+            case Character.PRIVATE_USE:
+            case Character.SURROGATE:
+            case Character.SPACE_SEPARATOR:
+            case Character.LINE_SEPARATOR:
+            case Character.PARAGRAPH_SEPARATOR:
+            case Character.NON_SPACING_MARK:
+            case Character.ENCLOSING_MARK:
+            case Character.COMBINING_SPACING_MARK:
+                return false;
+            default:
+                return true;
+        }
+    }
+}